@@ -0,0 +1,150 @@
+package com.google.sample.cloudvision;
+
+/**
+ * Picks the smallest upload that still keeps the label readable for OCR.
+ *
+ * The policy looks at a small thumbnail of the image. Pixels with a strong luminance gradient
+ * are treated as text strokes; the grid cells that contain many of them make up the text
+ * region, which becomes the crop. How densely the strokes are packed there says how fine the
+ * print is, and so how many pixels the text needs, while the global contrast says how much JPEG
+ * compression the strokes can take before they blur into the background.
+ */
+public final class AdaptiveEncodingPolicy {
+    /** Longer side of the thumbnail the policy should be given, in pixels. */
+    public static final int ANALYSIS_DIMENSION = 384;
+
+    private static final int CELL_SIZE = 16;
+    private static final float TEXT_CELL_DENSITY = 0.08f;
+    private static final int CROP_MARGIN_CELLS = 1;
+    // Cropping away less than this share of the image is not worth the risk.
+    private static final float MIN_CROP_SAVING = 0.15f;
+    private static final int MIN_EDGE_THRESHOLD = 24;
+
+    // Stroke density of the text region mapped to the longer side of the upload.
+    private static final float[] DENSITY_STEPS = {0.12f, 0.20f, 0.30f};
+    private static final int[] DIMENSIONS = {800, 1024, 1200, 1600};
+
+    // Contrast between the dark and the bright end of the image mapped to the JPEG quality.
+    private static final int[] CONTRAST_STEPS = {64, 128};
+    private static final int[] QUALITIES = {90, 85, 75};
+
+    private AdaptiveEncodingPolicy() {
+    }
+
+    /**
+     * Chooses the encoding for an image from its thumbnail.
+     *
+     * @param argb         the thumbnail pixels, row by row.
+     * @param width        the thumbnail width.
+     * @param height       the thumbnail height.
+     * @param sourceWidth  the width of the full image the crop is expressed in.
+     * @param sourceHeight the height of the full image.
+     */
+    public static EncodingSettings choose(int[] argb, int width, int height,
+                                          int sourceWidth, int sourceHeight) {
+        int pixels = width * height;
+        int[] luminance = new int[pixels];
+        int[] histogram = new int[256];
+        for (int i = 0; i < pixels; i++) {
+            int color = argb[i];
+            int y = (299 * ((color >> 16) & 0xff) + 587 * ((color >> 8) & 0xff) + 114 * (color & 0xff)) / 1000;
+            luminance[i] = y;
+            histogram[y]++;
+        }
+        int contrast = percentile(histogram, pixels, 0.95f) - percentile(histogram, pixels, 0.05f);
+        int edgeThreshold = Math.max(MIN_EDGE_THRESHOLD, contrast / 4);
+
+        int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        int[] cellEdges = new int[columns * rows];
+        for (int y = 0; y < height - 1; y++) {
+            for (int x = 0; x < width - 1; x++) {
+                int i = y * width + x;
+                int gradient = Math.abs(luminance[i + 1] - luminance[i])
+                        + Math.abs(luminance[i + width] - luminance[i]);
+                if (gradient > edgeThreshold) {
+                    cellEdges[(y / CELL_SIZE) * columns + x / CELL_SIZE]++;
+                }
+            }
+        }
+
+        int minColumn = columns;
+        int minRow = rows;
+        int maxColumn = -1;
+        int maxRow = -1;
+        long textEdges = 0;
+        long textPixels = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int cellPixels = Math.min(CELL_SIZE, width - column * CELL_SIZE)
+                        * Math.min(CELL_SIZE, height - row * CELL_SIZE);
+                int edges = cellEdges[row * columns + column];
+                if (edges >= TEXT_CELL_DENSITY * cellPixels) {
+                    minColumn = Math.min(minColumn, column);
+                    maxColumn = Math.max(maxColumn, column);
+                    minRow = Math.min(minRow, row);
+                    maxRow = Math.max(maxRow, row);
+                    textEdges += edges;
+                    textPixels += cellPixels;
+                }
+            }
+        }
+        if (maxColumn < 0) {
+            // No text found, let the server try on the whole image.
+            return EncodingSettings.uncropped(sourceWidth, sourceHeight,
+                    Math.min(DIMENSIONS[DIMENSIONS.length - 2], Math.max(sourceWidth, sourceHeight)),
+                    QUALITIES[0]);
+        }
+
+        int left = Math.max(0, (minColumn - CROP_MARGIN_CELLS) * CELL_SIZE);
+        int top = Math.max(0, (minRow - CROP_MARGIN_CELLS) * CELL_SIZE);
+        int right = Math.min(width, (maxColumn + 1 + CROP_MARGIN_CELLS) * CELL_SIZE);
+        int bottom = Math.min(height, (maxRow + 1 + CROP_MARGIN_CELLS) * CELL_SIZE);
+        if ((long) (right - left) * (bottom - top) > (1 - MIN_CROP_SAVING) * pixels) {
+            left = 0;
+            top = 0;
+            right = width;
+            bottom = height;
+        }
+        // Map the crop from the thumbnail to the source image.
+        left = (int) ((long) left * sourceWidth / width);
+        top = (int) ((long) top * sourceHeight / height);
+        right = (int) Math.min(sourceWidth, ((long) right * sourceWidth + width - 1) / width);
+        bottom = (int) Math.min(sourceHeight, ((long) bottom * sourceHeight + height - 1) / height);
+
+        float density = (float) textEdges / textPixels;
+        int dimension = DIMENSIONS[step(DENSITY_STEPS, density)];
+        // Upscaling adds bytes, not detail.
+        dimension = Math.min(dimension, Math.max(right - left, bottom - top));
+        int quality = QUALITIES[step(CONTRAST_STEPS, contrast)];
+        return new EncodingSettings(left, top, right, bottom, dimension, quality);
+    }
+
+    private static int percentile(int[] histogram, int total, float fraction) {
+        int target = (int) (total * fraction);
+        int seen = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            seen += histogram[value];
+            if (seen > target) {
+                return value;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    private static int step(float[] steps, float value) {
+        int step = 0;
+        while (step < steps.length && value >= steps[step]) {
+            step++;
+        }
+        return step;
+    }
+
+    private static int step(int[] steps, int value) {
+        int step = 0;
+        while (step < steps.length && value >= steps[step]) {
+            step++;
+        }
+        return step;
+    }
+}
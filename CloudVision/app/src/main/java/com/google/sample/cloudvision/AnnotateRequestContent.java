@@ -0,0 +1,53 @@
+package com.google.sample.cloudvision;
+
+import com.google.api.client.http.AbstractHttpContent;
+import com.google.api.client.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Body of an images:annotate request that asks for text detection on each image.
+ *
+ * The JSON is written by hand around the image contents, so each JPEG goes from its pooled
+ * buffer through a Base64 encoder right into the connection instead of first becoming a Base64
+ * String inside a request model and then a serialized copy of that model.
+ */
+class AnnotateRequestContent extends AbstractHttpContent {
+    private final List<EncodedImage> mImages;
+    private final int mMaxResults;
+
+    AnnotateRequestContent(List<EncodedImage> images, int maxResults) {
+        super(Json.MEDIA_TYPE);
+        mImages = images;
+        mMaxResults = maxResults;
+    }
+
+    @Override
+    public long getLength() {
+        // Unknown up front, the body is sent chunked.
+        return -1;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        write(out, "{\"requests\":[");
+        for (int i = 0; i < mImages.size(); i++) {
+            if (i > 0) {
+                write(out, ",");
+            }
+            write(out, "{\"image\":{\"content\":\"");
+            mImages.get(i).writeBase64To(out);
+            write(out, "\"},\"features\":[{\"type\":\"TEXT_DETECTION\",\"maxResults\":"
+                    + mMaxResults + "}]}");
+        }
+        write(out, "]}");
+        out.flush();
+    }
+
+    private static void write(OutputStream out, String json) throws IOException {
+        out.write(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,108 @@
+package com.google.sample.cloudvision;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pulls the full text of every image out of an images:annotate response.
+ *
+ * Only the description of the first text annotation, which is the whole text, and the error of
+ * every image are read; the per-word annotations with their bounding polygons and anything else
+ * are skipped token by token without building model objects or strings for them.
+ */
+final class AnnotateResponseParser {
+    private AnnotateResponseParser() {
+    }
+
+    /**
+     * @return one result per image, in request order.
+     */
+    static List<TextRecognizer.Result> parse(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        List<TextRecognizer.Result> results = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("responses".equals(reader.nextName())) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    results.add(parseResponse(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return results;
+    }
+
+    private static TextRecognizer.Result parseResponse(JsonReader reader) throws IOException {
+        String text = null;
+        String error = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "textAnnotations":
+                    text = parseFullText(reader);
+                    break;
+                case "error":
+                    error = parseErrorMessage(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return error != null ? TextRecognizer.Result.failed(error) : TextRecognizer.Result.text(text);
+    }
+
+    /**
+     * @return the description of the first annotation, null if there is none.
+     */
+    private static String parseFullText(JsonReader reader) throws IOException {
+        String text = null;
+        reader.beginArray();
+        if (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("description".equals(reader.nextName())) {
+                    text = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return text;
+    }
+
+    private static String parseErrorMessage(JsonReader reader) throws IOException {
+        String message = null;
+        int code = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "message":
+                    message = reader.nextString();
+                    break;
+                case "code":
+                    code = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return message != null ? message : "error " + code;
+    }
+}
@@ -0,0 +1,60 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+/**
+ * Reads the product barcode (EAN or UPC) printed on a picture, so that a product scanned
+ * before can be answered from the {@link ScanHistory} without recognizing its text.
+ *
+ * The detector comes with Google Play services and downloads its model on first use; until it
+ * is there, or on devices without Play services, no barcodes are read and scans simply go
+ * through text recognition.
+ */
+public final class BarcodeReader {
+    private static final String TAG = BarcodeReader.class.getSimpleName();
+    private static final int PRODUCT_FORMATS =
+            Barcode.EAN_13 | Barcode.EAN_8 | Barcode.UPC_A | Barcode.UPC_E;
+
+    private static volatile BarcodeReader sInstance;
+
+    // Guarded by this.
+    private final BarcodeDetector mDetector;
+
+    private BarcodeReader(Context context) {
+        mDetector = new BarcodeDetector.Builder(context).setBarcodeFormats(PRODUCT_FORMATS).build();
+    }
+
+    public static BarcodeReader getInstance(Context context) {
+        BarcodeReader instance = sInstance;
+        if (instance == null) {
+            synchronized (BarcodeReader.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new BarcodeReader(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the value of the first product barcode in the picture, or null if there is none or
+     * the detector is not available. Should not be called on the UI thread.
+     */
+    public synchronized String read(Bitmap bitmap) {
+        if (!mDetector.isOperational()) {
+            Log.d(TAG, "barcode detector not available yet");
+            return null;
+        }
+        SparseArray<Barcode> barcodes = mDetector.detect(new Frame.Builder().setBitmap(bitmap).build());
+        return barcodes.size() > 0 ? barcodes.valueAt(0).rawValue : null;
+    }
+}
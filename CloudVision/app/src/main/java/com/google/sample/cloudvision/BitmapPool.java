@@ -0,0 +1,72 @@
+package com.google.sample.cloudvision;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Small pool of mutable bitmaps that {@link ImagePreprocessor} decodes into through
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}, so consecutive scans reuse the same
+ * pixel memory instead of allocating a new multi-megabyte bitmap each time.
+ */
+public class BitmapPool {
+    private final int mMaxBitmaps;
+    private final List<Bitmap> mBitmaps = new ArrayList<>();
+
+    public BitmapPool(int maxBitmaps) {
+        mMaxBitmaps = maxBitmaps;
+    }
+
+    /**
+     * Takes the smallest pooled bitmap that can hold an ARGB_8888 image of the given size.
+     *
+     * @return the bitmap, which the caller now owns, or null if none is large enough.
+     */
+    public synchronized Bitmap get(int width, int height) {
+        int needed = width * height * 4;
+        Bitmap best = null;
+        for (Bitmap bitmap : mBitmaps) {
+            int size = bitmap.getAllocationByteCount();
+            if (size >= needed && (best == null || size < best.getAllocationByteCount())) {
+                best = bitmap;
+            }
+        }
+        if (best != null) {
+            mBitmaps.remove(best);
+        }
+        return best;
+    }
+
+    /**
+     * Returns a bitmap to the pool. The caller must not use it afterwards.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+        mBitmaps.add(bitmap);
+        while (mBitmaps.size() > mMaxBitmaps) {
+            // Drop the smallest one, the larger ones can serve more requests.
+            Bitmap smallest = mBitmaps.get(0);
+            for (Bitmap candidate : mBitmaps) {
+                if (candidate.getAllocationByteCount() < smallest.getAllocationByteCount()) {
+                    smallest = candidate;
+                }
+            }
+            mBitmaps.remove(smallest);
+            smallest.recycle();
+        }
+    }
+
+    /**
+     * Frees every pooled bitmap, e.g. when the system is low on memory.
+     */
+    public synchronized void clear() {
+        for (Iterator<Bitmap> it = mBitmaps.iterator(); it.hasNext(); ) {
+            it.next().recycle();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Recognizes text with the Cloud Vision TEXT_DETECTION feature.
+ */
+public class CloudVisionRecognizer implements TextRecognizer {
+    private static final int MAX_LABEL_RESULTS = 10;
+    // Cloud Vision accepts at most this many images in one images:annotate call.
+    private static final int MAX_BATCH_SIZE = 16;
+
+    private final Context mContext;
+
+    public CloudVisionRecognizer(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    @Override
+    public List<Result> recognize(List<EncodedImage> images) throws IOException {
+        List<Result> results = VisionClientProvider.getInstance(mContext).annotate(images, MAX_LABEL_RESULTS);
+        if (results.size() != images.size()) {
+            throw new IOException("got " + results.size() + " responses for " + images.size() + " images");
+        }
+        return results;
+    }
+}
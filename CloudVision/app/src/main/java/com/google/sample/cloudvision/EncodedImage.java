@@ -0,0 +1,100 @@
+package com.google.sample.cloudvision;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Debug;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A JPEG ready for upload, held in a pooled buffer of {@link ImagePreprocessor}.
+ *
+ * The bytes are never copied out of the buffer: they are hashed in place for the cache key and
+ * Base64 encoded straight into the request body. Call {@link #release()} once the image has
+ * been sent, so the buffer can serve the next scan. Requests that may still send the image after
+ * that, like a hedged duplicate, hold on to it with {@link #retain()}.
+ */
+public final class EncodedImage {
+    private final ImagePreprocessor mOwner;
+    private final Buffer mBuffer;
+    // The buffer goes back to the pool when the last reference is released.
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+    private String mKey;
+
+    EncodedImage(ImagePreprocessor owner, Buffer buffer) {
+        mOwner = owner;
+        mBuffer = buffer;
+    }
+
+    /**
+     * @return the JPEG size in bytes.
+     */
+    public int getLength() {
+        return mBuffer.size();
+    }
+
+    /**
+     * @return the {@link ScanResultCache} key of the JPEG.
+     */
+    public synchronized String getKey() {
+        if (mKey == null) {
+            mKey = ScanResultCache.keyOf(mBuffer.array(), 0, mBuffer.size());
+        }
+        return mKey;
+    }
+
+    /**
+     * Writes the JPEG to the stream as unwrapped Base64, without buffering the encoded form.
+     */
+    public void writeBase64To(OutputStream out) throws IOException {
+        // The output blocks on the socket, so only the CPU time measures the encoding.
+        long start = Debug.threadCpuTimeNanos();
+        Base64OutputStream base64 = new Base64OutputStream(out, Base64.NO_WRAP | Base64.NO_CLOSE);
+        base64.write(mBuffer.array(), 0, mBuffer.size());
+        // Flushes the last partial block; NO_CLOSE keeps the request stream open.
+        base64.close();
+        ScanMetrics.getInstance().record(ScanMetrics.Stage.BASE64, Debug.threadCpuTimeNanos() - start);
+    }
+
+    /**
+     * Decodes the JPEG again, for recognizers that need the pixels.
+     *
+     * @return the bitmap, or null if the bytes cannot be decoded.
+     */
+    public Bitmap decode() {
+        return BitmapFactory.decodeByteArray(mBuffer.array(), 0, mBuffer.size());
+    }
+
+    /**
+     * Keeps the buffer from going back to the pool until {@link #release()} is called once more.
+     */
+    public void retain() {
+        if (mReferences.getAndIncrement() <= 0) {
+            throw new IllegalStateException("image already released");
+        }
+    }
+
+    public void release() {
+        if (mReferences.decrementAndGet() == 0) {
+            mOwner.releaseBuffer(mBuffer);
+        }
+    }
+
+    /**
+     * Growable byte buffer whose backing array can be read without copying it.
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
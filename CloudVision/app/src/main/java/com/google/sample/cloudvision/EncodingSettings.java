@@ -0,0 +1,90 @@
+package com.google.sample.cloudvision;
+
+/**
+ * How an image is prepared for upload: the part of the source image to keep, the size of its
+ * longer side after scaling and the JPEG quality.
+ */
+public final class EncodingSettings {
+    private final int mLeft;
+    private final int mTop;
+    private final int mRight;
+    private final int mBottom;
+    private final int mMaxDimension;
+    private final int mQuality;
+
+    /**
+     * The crop rectangle is given in source pixels, with right and bottom exclusive.
+     *
+     * @param maxDimension the longer side of the cropped image after scaling.
+     * @param quality      the JPEG quality, 0 to 100.
+     */
+    public EncodingSettings(int left, int top, int right, int bottom, int maxDimension, int quality) {
+        if (left < 0 || top < 0 || right <= left || bottom <= top) {
+            throw new IllegalArgumentException("Empty crop " + left + "," + top + "," + right + "," + bottom);
+        }
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+        mMaxDimension = maxDimension;
+        mQuality = quality;
+    }
+
+    /**
+     * @return settings that keep the whole image, as the app always did before.
+     */
+    public static EncodingSettings uncropped(int sourceWidth, int sourceHeight,
+                                             int maxDimension, int quality) {
+        return new EncodingSettings(0, 0, sourceWidth, sourceHeight, maxDimension, quality);
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mRight;
+    }
+
+    public int getBottom() {
+        return mBottom;
+    }
+
+    public int getCropWidth() {
+        return mRight - mLeft;
+    }
+
+    public int getCropHeight() {
+        return mBottom - mTop;
+    }
+
+    public int getMaxDimension() {
+        return mMaxDimension;
+    }
+
+    public int getQuality() {
+        return mQuality;
+    }
+
+    /**
+     * @return the size of the cropped image after scaling its longer side to the max dimension,
+     * at least one pixel however narrow the crop.
+     */
+    public int getTargetWidth() {
+        return Math.max(1, (int) ((long) getCropWidth() * mMaxDimension / Math.max(getCropWidth(), getCropHeight())));
+    }
+
+    public int getTargetHeight() {
+        return Math.max(1, (int) ((long) getCropHeight() * mMaxDimension / Math.max(getCropWidth(), getCropHeight())));
+    }
+
+    @Override
+    public String toString() {
+        return "EncodingSettings{crop=" + mLeft + "," + mTop + "-" + mRight + "," + mBottom
+                + ", maxDimension=" + mMaxDimension + ", quality=" + mQuality + "}";
+    }
+}
@@ -0,0 +1,102 @@
+package com.google.sample.cloudvision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides which camera frames of a live scan are worth recognizing.
+ *
+ * Every frame is reduced to a 64 bit difference hash of its luminance, which stays the same
+ * under noise and small exposure changes but not when the camera moves. A frame is recognized
+ * only when the scene has held still for {@link #STABLE_MS}, since text in a moving picture is
+ * blurred, and only when it shows something else than the last recognized frame. Requests are
+ * spaced at least {@link #MIN_INTERVAL_MS} apart.
+ *
+ * Not thread safe; a live scan feeds it from its camera thread only.
+ */
+final class FrameGate {
+    /** How long the scene must not change before a frame is recognized. */
+    static final long STABLE_MS = 400;
+    /** The shortest time between two recognized frames. */
+    static final long MIN_INTERVAL_MS = 1000;
+    // Hash bits two frames of a steady scene may differ in.
+    private static final int STEADY_DISTANCE = 6;
+    // Hash bits a frame must differ from the last recognized one in to count as a new scene.
+    private static final int NEW_SCENE_DISTANCE = 10;
+    private static final int HASH_COLUMNS = 9;
+    private static final int HASH_ROWS = 8;
+    // Samples per hash cell side, averaged so the hash does not follow single noisy pixels.
+    private static final int CELL_SAMPLES = 4;
+
+    private final int[] mCells = new int[HASH_COLUMNS * HASH_ROWS];
+    private long mPreviousHash;
+    private long mSteadySince = -1;
+    private long mRecognizedHash;
+    private long mRecognizedAt = -1;
+
+    /**
+     * @return the difference hash of an 8 bit luminance plane: one bit per pair of horizontally
+     * neighbouring cells of a 9 by 8 grid, set where the left cell is darker.
+     */
+    long hash(ByteBuffer luma, int rowStride, int pixelStride, int width, int height) {
+        int cellWidth = width / HASH_COLUMNS;
+        int cellHeight = height / HASH_ROWS;
+        for (int row = 0; row < HASH_ROWS; row++) {
+            for (int column = 0; column < HASH_COLUMNS; column++) {
+                int sum = 0;
+                for (int y = 0; y < CELL_SAMPLES; y++) {
+                    int offset = (row * cellHeight + (2 * y + 1) * cellHeight / (2 * CELL_SAMPLES)) * rowStride;
+                    for (int x = 0; x < CELL_SAMPLES; x++) {
+                        int pixel = column * cellWidth + (2 * x + 1) * cellWidth / (2 * CELL_SAMPLES);
+                        sum += luma.get(offset + pixel * pixelStride) & 0xff;
+                    }
+                }
+                mCells[row * HASH_COLUMNS + column] = sum;
+            }
+        }
+        long hash = 0;
+        for (int row = 0; row < HASH_ROWS; row++) {
+            for (int column = 0; column < HASH_COLUMNS - 1; column++) {
+                int cell = row * HASH_COLUMNS + column;
+                hash = hash << 1 | (mCells[cell] < mCells[cell + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Takes in the hash of the newest frame.
+     *
+     * @return whether the frame should be recognized. The caller confirms with
+     * {@link #onRecognized} if it actually is.
+     */
+    boolean offer(long hash, long nowMs) {
+        if (mSteadySince < 0 || Long.bitCount(hash ^ mPreviousHash) > STEADY_DISTANCE) {
+            mSteadySince = nowMs;
+        }
+        mPreviousHash = hash;
+        if (nowMs - mSteadySince < STABLE_MS) {
+            return false;
+        }
+        if (mRecognizedAt >= 0 && (nowMs - mRecognizedAt < MIN_INTERVAL_MS
+                || Long.bitCount(hash ^ mRecognizedHash) <= NEW_SCENE_DISTANCE)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The frame with the hash went to recognition.
+     */
+    void onRecognized(long hash, long nowMs) {
+        mRecognizedHash = hash;
+        mRecognizedAt = nowMs;
+    }
+
+    /**
+     * Forgets the last recognized frame, so the current scene is recognized again.
+     */
+    void reset() {
+        mRecognizedAt = -1;
+        mSteadySince = -1;
+    }
+}
@@ -0,0 +1,321 @@
+package com.google.sample.cloudvision;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+import android.media.Image;
+import android.net.Uri;
+import android.os.Debug;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Turns a picked image into a JPEG for Cloud Vision with as few full-size copies as possible.
+ *
+ * A thumbnail first tells {@link AdaptiveEncodingPolicy} where the text is and how fine it is.
+ * The image is then decoded straight at the upload size: {@code inSampleSize} skips most of
+ * the source pixels while decoding, and either density scaling or, for a cropped image, the
+ * region decoder plus one scaling pass take care of the rest, so the full resolution bitmap
+ * never exists. Decoding reuses pooled bitmaps, and the JPEG is compressed into a pooled buffer
+ * that is Base64 encoded directly into the request body (see {@link EncodedImage}).
+ *
+ * Live camera frames are already small enough and skip all of that: they are only turned
+ * upright and compressed, see {@link #encode(Image, int, int)}.
+ */
+public class ImagePreprocessor {
+    private static final String TAG = ImagePreprocessor.class.getSimpleName();
+    private static final int MAX_POOLED_BITMAPS = 2;
+    private static final int MAX_POOLED_BUFFERS = 4;
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    private final ContentResolver mResolver;
+    private final BitmapPool mBitmapPool = new BitmapPool(MAX_POOLED_BITMAPS);
+    private final ArrayDeque<EncodedImage.Buffer> mBuffers = new ArrayDeque<>();
+    // Thumbnail pixels for the encoding policy, reused between scans.
+    private int[] mPixels;
+    // Guarded by this. A camera frame and a row of it while it is converted, reused between frames.
+    private byte[] mFrame;
+    private byte[] mRow;
+
+    public ImagePreprocessor(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Looks at a small thumbnail of the image to decide how to crop, scale and compress it.
+     */
+    public EncodingSettings analyze(Uri uri) throws IOException {
+        BitmapFactory.Options options = decodeBounds(uri);
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        int dimension = Math.min(AdaptiveEncodingPolicy.ANALYSIS_DIMENSION, Math.max(sourceWidth, sourceHeight));
+        Bitmap thumbnail = decodeScaled(uri, options, dimension, null);
+        int width = thumbnail.getWidth();
+        int height = thumbnail.getHeight();
+        EncodingSettings settings;
+        synchronized (this) {
+            if (mPixels == null || mPixels.length < width * height) {
+                mPixels = new int[width * height];
+            }
+            thumbnail.getPixels(mPixels, 0, width, 0, 0, width, height);
+            settings = AdaptiveEncodingPolicy.choose(mPixels, width, height, sourceWidth, sourceHeight);
+        }
+        thumbnail.recycle();
+        Log.d(TAG, "chose " + settings + " for " + sourceWidth + "x" + sourceHeight);
+        return settings;
+    }
+
+    /**
+     * Decodes the part of the image selected by the settings, scaled to their max dimension.
+     */
+    public Bitmap decode(Uri uri, EncodingSettings settings) throws IOException {
+        logMemory("before decoding " + uri);
+        BitmapFactory.Options options = decodeBounds(uri);
+        int targetWidth = settings.getTargetWidth();
+        int targetHeight = settings.getTargetHeight();
+
+        ScanMetrics metrics = ScanMetrics.getInstance();
+        long start = System.nanoTime();
+        Bitmap bitmap;
+        if (settings.getCropWidth() == options.outWidth && settings.getCropHeight() == options.outHeight) {
+            bitmap = decodeScaled(uri, options, settings.getMaxDimension(),
+                    mBitmapPool.get(targetWidth, targetHeight));
+        } else {
+            bitmap = decodeRegion(uri, settings);
+        }
+        metrics.record(ScanMetrics.Stage.DECODE, System.nanoTime() - start);
+        if (bitmap.getWidth() != targetWidth || bitmap.getHeight() != targetHeight) {
+            start = System.nanoTime();
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+            mBitmapPool.put(bitmap);
+            bitmap = scaled;
+            metrics.record(ScanMetrics.Stage.SCALE, System.nanoTime() - start);
+        }
+        logMemory("decoded " + options.outWidth + "x" + options.outHeight + " as "
+                + bitmap.getWidth() + "x" + bitmap.getHeight());
+        return bitmap;
+    }
+
+    /**
+     * Compresses the bitmap to a JPEG in a pooled buffer.
+     */
+    public EncodedImage encode(Bitmap bitmap, int quality) {
+        EncodedImage.Buffer buffer = obtainBuffer();
+        long start = System.nanoTime();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, buffer);
+        ScanMetrics.getInstance().record(ScanMetrics.Stage.COMPRESS, System.nanoTime() - start);
+        logMemory("encoded " + buffer.size() + " JPEG bytes");
+        return new EncodedImage(this, buffer);
+    }
+
+    /**
+     * Compresses a YUV_420_888 camera frame to a JPEG in a pooled buffer, rotated clockwise by
+     * the given multiple of 90 degrees so that the text is upright.
+     */
+    public EncodedImage encode(Image frame, int rotation, int quality) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        boolean sideways = rotation % 180 != 0;
+        int outWidth = sideways ? height : width;
+        int outHeight = sideways ? width : height;
+        Image.Plane[] planes = frame.getPlanes();
+        EncodedImage.Buffer buffer = obtainBuffer();
+        synchronized (this) {
+            int size = outWidth * outHeight * 3 / 2;
+            if (mFrame == null || mFrame.length < size) {
+                mFrame = new byte[size];
+            }
+            // NV21: the luminance plane, then V and U interleaved at half the resolution.
+            copyRotated(planes[0], width, height, rotation, 0, 1, 0);
+            int chroma = outWidth * outHeight;
+            copyRotated(planes[2], width / 2, height / 2, rotation, chroma, 2, 0);
+            copyRotated(planes[1], width / 2, height / 2, rotation, chroma, 2, 1);
+            YuvImage yuv = new YuvImage(mFrame, ImageFormat.NV21, outWidth, outHeight, null);
+            long start = System.nanoTime();
+            yuv.compressToJpeg(new Rect(0, 0, outWidth, outHeight), quality, buffer);
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.COMPRESS, System.nanoTime() - start);
+        }
+        return new EncodedImage(this, buffer);
+    }
+
+    /**
+     * Copies a plane of the given size into mFrame at the offset, rotated clockwise, writing
+     * every sample to the given position within a group of step bytes.
+     */
+    private void copyRotated(Image.Plane plane, int width, int height, int rotation,
+                             int offset, int step, int position) {
+        ByteBuffer source = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        int rowLength = (width - 1) * pixelStride + 1;
+        if (mRow == null || mRow.length < rowLength) {
+            mRow = new byte[rowLength];
+        }
+        int outWidth = rotation % 180 != 0 ? height : width;
+        for (int y = 0; y < height; y++) {
+            source.position(y * rowStride);
+            source.get(mRow, 0, rowLength);
+            for (int x = 0; x < width; x++) {
+                int outX;
+                int outY;
+                switch (rotation) {
+                    case 90:
+                        outX = height - 1 - y;
+                        outY = x;
+                        break;
+                    case 180:
+                        outX = width - 1 - x;
+                        outY = height - 1 - y;
+                        break;
+                    case 270:
+                        outX = y;
+                        outY = width - 1 - x;
+                        break;
+                    default:
+                        outX = x;
+                        outY = y;
+                        break;
+                }
+                mFrame[offset + (outY * outWidth + outX) * step + position] = mRow[x * pixelStride];
+            }
+        }
+    }
+
+    /**
+     * Hands a bitmap that is no longer shown or needed back for reuse by later decodes.
+     */
+    public void recycle(Bitmap bitmap) {
+        mBitmapPool.put(bitmap);
+    }
+
+    /**
+     * Frees the pooled memory.
+     */
+    public void trimMemory() {
+        mBitmapPool.clear();
+        synchronized (mBuffers) {
+            mBuffers.clear();
+        }
+    }
+
+    void releaseBuffer(EncodedImage.Buffer buffer) {
+        buffer.reset();
+        synchronized (mBuffers) {
+            if (mBuffers.size() < MAX_POOLED_BUFFERS) {
+                mBuffers.push(buffer);
+            }
+        }
+    }
+
+    private EncodedImage.Buffer obtainBuffer() {
+        synchronized (mBuffers) {
+            EncodedImage.Buffer buffer = mBuffers.poll();
+            return buffer != null ? buffer : new EncodedImage.Buffer(INITIAL_BUFFER_SIZE);
+        }
+    }
+
+    private BitmapFactory.Options decodeBounds(Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream in = mResolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(in, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("cannot decode " + uri);
+        }
+        return options;
+    }
+
+    /**
+     * Decodes the whole image so that its longer side is maxDimension pixels.
+     */
+    private Bitmap decodeScaled(Uri uri, BitmapFactory.Options bounds, int maxDimension,
+                                Bitmap reuse) throws IOException {
+        int longSide = Math.max(bounds.outWidth, bounds.outHeight);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(longSide, maxDimension);
+        // Scales the subsampled image the rest of the way to maxDimension while decoding.
+        options.inScaled = true;
+        options.inDensity = longSide / options.inSampleSize;
+        options.inTargetDensity = maxDimension;
+        options.inMutable = true;
+        options.inBitmap = reuse;
+
+        Bitmap bitmap;
+        try (InputStream in = mResolver.openInputStream(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap could not be reused after all.
+            mBitmapPool.put(reuse);
+            options.inBitmap = null;
+            try (InputStream in = mResolver.openInputStream(uri)) {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+        }
+        if (bitmap == null) {
+            throw new IOException("cannot decode " + uri);
+        }
+        // Pixels are pixels from here on, the density only confuses image views.
+        bitmap.setDensity(Bitmap.DENSITY_NONE);
+        return bitmap;
+    }
+
+    /**
+     * Decodes only the crop of the settings, subsampled to at least their max dimension.
+     */
+    private Bitmap decodeRegion(Uri uri, EncodingSettings settings) throws IOException {
+        int cropLongSide = Math.max(settings.getCropWidth(), settings.getCropHeight());
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(cropLongSide, settings.getMaxDimension());
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.get(
+                (settings.getCropWidth() + options.inSampleSize - 1) / options.inSampleSize,
+                (settings.getCropHeight() + options.inSampleSize - 1) / options.inSampleSize);
+        Rect region = new Rect(settings.getLeft(), settings.getTop(), settings.getRight(), settings.getBottom());
+
+        try (InputStream in = mResolver.openInputStream(uri)) {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                Bitmap bitmap;
+                try {
+                    bitmap = decoder.decodeRegion(region, options);
+                } catch (IllegalArgumentException e) {
+                    mBitmapPool.put(options.inBitmap);
+                    options.inBitmap = null;
+                    bitmap = decoder.decodeRegion(region, options);
+                }
+                if (bitmap == null) {
+                    throw new IOException("cannot decode " + region + " of " + uri);
+                }
+                return bitmap;
+            } finally {
+                decoder.recycle();
+            }
+        }
+    }
+
+    private static int sampleSize(int longSide, int maxDimension) {
+        int sampleSize = 1;
+        while (longSide / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static void logMemory(String stage) {
+        if (BuildConfig.DEBUG) {
+            Runtime runtime = Runtime.getRuntime();
+            long javaHeap = runtime.totalMemory() - runtime.freeMemory();
+            Log.d(TAG, stage + ": java heap " + javaHeap / 1024 + " KB, native heap "
+                    + Debug.getNativeHeapAllocatedSize() / 1024 + " KB");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable dictionary of the ingredient keywords for every {@link VeganLevel}, one of which is
+ * the process-wide current dictionary.
+ *
+ * The keywords are compiled at build time into the {@link #ASSET_NAME} asset (see the
+ * {@code compileIngredientDictionary} task in {@code app/build.gradle}). The asset is stored
+ * uncompressed in the APK, so it is memory mapped straight out of it on first use and the
+ * automaton runs on the mapped pages; nothing is parsed or copied onto the heap.
+ *
+ * {@link IngredientRulesUpdater} replaces the current dictionary with one compiled from updated
+ * rules. The swap is a single reference write: a scan that already holds a dictionary finishes
+ * with it, the following scans get the new one, and classification never waits for it.
+ */
+public final class IngredientDictionary {
+    static final String ASSET_NAME = "ingredients.vdict";
+
+    private static final String TAG = IngredientDictionary.class.getSimpleName();
+
+    private static final AtomicReference<IngredientDictionary> sCurrent = new AtomicReference<>();
+
+    private final IngredientDictionaryFile mFile;
+    private final VeganClassifier mClassifier;
+
+    IngredientDictionary(IngredientDictionaryFile file) {
+        mFile = file;
+        mClassifier = new VeganClassifier(file);
+    }
+
+    /**
+     * @return the current dictionary, mapping the bundled one on first use. Callers should keep
+     * the returned dictionary for the whole scan, so that all of it is classified alike.
+     * @throws IllegalStateException if the bundled dictionary asset cannot be read.
+     */
+    public static IngredientDictionary getInstance(Context context) {
+        IngredientDictionary current = sCurrent.get();
+        if (current == null) {
+            synchronized (IngredientDictionary.class) {
+                if (sCurrent.get() == null) {
+                    // An update installed in the meantime wins over the bundled dictionary.
+                    sCurrent.compareAndSet(null, new IngredientDictionary(load(context.getApplicationContext())));
+                }
+            }
+            current = sCurrent.get();
+        }
+        return current;
+    }
+
+    /**
+     * Makes the dictionary the current one for all following {@link #getInstance} calls.
+     */
+    static void install(IngredientDictionary dictionary) {
+        sCurrent.set(dictionary);
+    }
+
+    private static IngredientDictionaryFile load(Context context) {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(ASSET_NAME);
+             FileInputStream in = descriptor.createInputStream()) {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+            IngredientDictionaryFile file = IngredientDictionaryFile.read(buffer);
+            Log.d(TAG, "mapped ingredient dictionary version " + file.getVersion()
+                    + " with " + file.getMatcher().size() + " states");
+            return file;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot load " + ASSET_NAME, e);
+        }
+    }
+
+    /**
+     * @return the version of the keyword lists in use.
+     */
+    public int getVersion() {
+        return mFile.getVersion();
+    }
+
+    public IngredientMatcher getMatcher() {
+        return mFile.getMatcher();
+    }
+
+    /**
+     * Finds every ingredient keyword in the text, see {@link VeganClassifier#findMatches}.
+     */
+    public List<VeganVerdict.Match> findMatches(CharSequence text) {
+        return mClassifier.findMatches(text);
+    }
+}
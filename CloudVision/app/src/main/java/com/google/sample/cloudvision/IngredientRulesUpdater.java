@@ -0,0 +1,206 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates the ingredient rules without a new APK.
+ *
+ * The rules start out as the {@link #ASSET_NAME} ruleset the build generates along with the
+ * compiled dictionary. Patches ({@link IngredientRuleset.Patch}, one per {@code .patch} file)
+ * are picked up from the {@code rules} directory of the app's internal files, where a download
+ * would put them, as soon as they are written. Debug builds take them from the external files
+ * instead, where {@code adb push} can put them for testing; other apps may write there too, so
+ * release builds never do. Patches that continue the current version are applied in order, the
+ * result is compiled in the background and installed with {@link IngredientDictionary#install},
+ * and only then is the patched ruleset saved so the next start continues from it. Rules that do
+ * not compile are logged and left out, the current dictionary stays. Applied and outdated
+ * patches are deleted, patches for a later version wait for the ones before them, and two
+ * patches for the same version are both ignored until one of them is removed.
+ *
+ * A new APK with a later bundled version replaces the saved rules.
+ */
+public final class IngredientRulesUpdater {
+    static final String ASSET_NAME = "ingredients.rules";
+
+    private static final String TAG = IngredientRulesUpdater.class.getSimpleName();
+    private static final String INCOMING_DIRECTORY = "rules";
+    private static final String PATCH_SUFFIX = ".patch";
+    private static final String SAVED_RULES = "ingredients.rules";
+
+    private static volatile IngredientRulesUpdater sInstance;
+
+    private final Context mContext;
+    private final File mIncoming;
+    private final File mSaved;
+    // One update at a time, and at most one more waiting, which sees every patch written so far.
+    private final ThreadPoolExecutor mExecutor = ScanPipeline.newExecutor("rules", 1, 1);
+    private final FileObserver mObserver;
+    private boolean mStarted;
+    // Only used on the executor. The rules of the current dictionary, null until first loaded.
+    private IngredientRuleset mRuleset;
+
+    private IngredientRulesUpdater(Context context) {
+        mContext = context;
+        File external = BuildConfig.DEBUG ? context.getExternalFilesDir(null) : null;
+        mIncoming = new File(external != null ? external : context.getFilesDir(), INCOMING_DIRECTORY);
+        mSaved = new File(context.getFilesDir(), SAVED_RULES);
+        mObserver = new FileObserver(mIncoming.getPath(), FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO) {
+            @Override
+            public void onEvent(int event, String path) {
+                if (path != null && path.endsWith(PATCH_SUFFIX)) {
+                    update();
+                }
+            }
+        };
+    }
+
+    public static IngredientRulesUpdater getInstance(Context context) {
+        IngredientRulesUpdater instance = sInstance;
+        if (instance == null) {
+            synchronized (IngredientRulesUpdater.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new IngredientRulesUpdater(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Applies the saved rules and the waiting patches in the background and watches for new
+     * patches from now on. Later calls do nothing.
+     */
+    public synchronized void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        if (!mIncoming.isDirectory() && !mIncoming.mkdirs()) {
+            Log.d(TAG, "cannot create " + mIncoming + ", no rule patches will be picked up");
+        }
+        mObserver.startWatching();
+        update();
+    }
+
+    /**
+     * Applies the waiting patches in the background.
+     */
+    public void update() {
+        try {
+            mExecutor.execute(this::applyPatches);
+        } catch (RejectedExecutionException e) {
+            // An update is waiting already, it will see the new patches as well.
+        }
+    }
+
+    private void applyPatches() {
+        long start = System.nanoTime();
+        try {
+            IngredientRuleset loaded = mRuleset != null ? mRuleset : loadRules();
+            IngredientRuleset ruleset = loaded;
+            Map<Integer, IngredientRuleset.Patch> patches = new HashMap<>();
+            Map<Integer, List<File>> files = new HashMap<>();
+            File[] listed = mIncoming.listFiles((directory, name) -> name.endsWith(PATCH_SUFFIX));
+            for (File file : listed != null ? listed : new File[0]) {
+                try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                    IngredientRuleset.Patch patch = IngredientRuleset.Patch.read(in);
+                    patches.put(patch.getBase(), patch);
+                    files.computeIfAbsent(patch.getBase(), base -> new ArrayList<>()).add(file);
+                } catch (IOException e) {
+                    Log.d(TAG, "skipping " + file + " because " + e.getMessage());
+                }
+            }
+            for (Map.Entry<Integer, List<File>> entry : files.entrySet()) {
+                if (entry.getValue().size() > 1 && entry.getKey() >= ruleset.getVersion()) {
+                    // Neither is known to be the right one.
+                    Log.d(TAG, "ignoring " + entry.getValue() + " because they all patch version "
+                            + entry.getKey());
+                    patches.remove(entry.getKey());
+                }
+            }
+            IngredientRuleset.Patch patch;
+            while ((patch = patches.get(ruleset.getVersion())) != null) {
+                ruleset = ruleset.apply(patch);
+            }
+
+            // Compiled before anything is saved or deleted, so that rules which do not compile
+            // leave the current dictionary and the patches as they are.
+            IngredientDictionary current = IngredientDictionary.getInstance(mContext);
+            if (ruleset.getVersion() != current.getVersion()) {
+                IngredientDictionary.install(new IngredientDictionary(ruleset.compile()));
+                Log.d(TAG, "installed ingredient rules version " + ruleset.getVersion() + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+            }
+            if (ruleset != loaded) {
+                // Saved before the patches go, so that a crash loses neither.
+                save(ruleset);
+            }
+            for (Map.Entry<Integer, List<File>> entry : files.entrySet()) {
+                // Applied now, or made for rules older than these.
+                if (entry.getKey() < ruleset.getVersion()) {
+                    for (File file : entry.getValue()) {
+                        file.delete();
+                    }
+                }
+            }
+            mRuleset = ruleset;
+        } catch (IOException | RuntimeException e) {
+            // The current dictionary stays in use.
+            Log.d(TAG, "cannot update the ingredient rules because " + e);
+        }
+    }
+
+    /**
+     * @return the saved rules, or the bundled ones if there are none or the bundled ones are newer.
+     */
+    private IngredientRuleset loadRules() throws IOException {
+        IngredientRuleset bundled;
+        try (Reader in = new InputStreamReader(mContext.getAssets().open(ASSET_NAME), StandardCharsets.UTF_8)) {
+            bundled = IngredientRuleset.read(in);
+        }
+        if (mSaved.exists()) {
+            try (Reader in = new InputStreamReader(new FileInputStream(mSaved), StandardCharsets.UTF_8)) {
+                IngredientRuleset saved = IngredientRuleset.read(in);
+                if (saved.getVersion() > bundled.getVersion()) {
+                    return saved;
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "ignoring the saved rules because " + e.getMessage());
+            }
+            mSaved.delete();
+        }
+        return bundled;
+    }
+
+    private void save(IngredientRuleset ruleset) throws IOException {
+        File temporary = new File(mSaved.getPath() + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+            ruleset.writeTo(out);
+        }
+        if (!temporary.renameTo(mSaved)) {
+            temporary.delete();
+            throw new IOException("cannot save " + mSaved);
+        }
+    }
+}
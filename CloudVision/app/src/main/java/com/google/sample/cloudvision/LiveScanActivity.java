@@ -0,0 +1,449 @@
+package com.google.sample.cloudvision;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scans a label continuously through the camera preview, without taking a photo.
+ *
+ * Frames arrive from an {@link ImageReader} on the camera thread. The reader holds two frames
+ * and {@link ImageReader#acquireLatestImage()} drops all but the newest one, so frames that
+ * arrive while the thread is busy are dropped instead of queued. {@link FrameGate} lets only
+ * steady frames of a new scene through, and only while no other frame is being recognized.
+ * Those are encoded and go through the {@link ScanPipeline} like picked pictures, and
+ * {@link VerdictStabilizer} folds their verdicts into the verdict of the product shown below
+ * the preview, which gets more complete as the camera pans over the label. Every frame is tagged
+ * with the generation it was taken in, so that a frame still being recognized when the user
+ * restarts does not count toward the next product.
+ */
+public class LiveScanActivity extends AppCompatActivity {
+    private static final String TAG = LiveScanActivity.class.getSimpleName();
+    // Long side of the analyzed frames: enough for ingredient lists, small enough to upload.
+    private static final int FRAME_LONG_SIDE = 1280;
+    private static final int MAX_FRAMES = 2;
+    private static final int FRAME_QUALITY = 85;
+    private static final long CAMERA_LOCK_TIMEOUT_MS = 2500;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final VerdictStabilizer mStabilizer = new VerdictStabilizer();
+    // Only used on the camera thread.
+    private final FrameGate mGate = new FrameGate();
+    // Whether a frame is in the scan pipeline; further frames are dropped until it is done.
+    private final AtomicBoolean mRecognizing = new AtomicBoolean();
+    // Counts restarts. Written on the main thread only, read by the camera thread.
+    private volatile int mGeneration;
+    // Keeps the camera from being closed while it is still being opened.
+    private final Semaphore mCameraLock = new Semaphore(1);
+    private TextureView mPreview;
+    private TextView mVerdictView;
+    private ImagePreprocessor mPreprocessor;
+    private ScanPipeline mScanPipeline;
+    private boolean mActive;
+    private HandlerThread mCameraThread;
+    private Handler mCameraHandler;
+    private CameraDevice mCamera;
+    private CameraCaptureSession mSession;
+    private ImageReader mReader;
+    private Size mPreviewSize;
+    private int mSensorOrientation;
+
+    private final TextureView.SurfaceTextureListener mSurfaceListener =
+            new TextureView.SurfaceTextureListener() {
+                @Override
+                public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+                    openCamera();
+                }
+
+                @Override
+                public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+                }
+
+                @Override
+                public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+                    return true;
+                }
+
+                @Override
+                public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+                }
+            };
+
+    private final CameraDevice.StateCallback mCameraCallback = new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+            mCamera = camera;
+            mCameraLock.release();
+            startPreview();
+        }
+
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+            releaseIfOpening();
+            camera.close();
+            mCamera = null;
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+            releaseIfOpening();
+            camera.close();
+            mCamera = null;
+            Log.d(TAG, "camera failed with error " + error);
+            mMainHandler.post(() -> showCameraError());
+        }
+
+        private void releaseIfOpening() {
+            // Once the camera is open, the lock was released already.
+            if (mCamera == null) {
+                mCameraLock.release();
+            }
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_live_scan);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        mPreview = findViewById(R.id.live_preview);
+        mVerdictView = findViewById(R.id.live_verdict);
+        findViewById(R.id.live_restart).setOnClickListener(view -> restart());
+        mPreprocessor = new ImagePreprocessor(getContentResolver());
+        mScanPipeline = new ScanPipeline(this, mPreprocessor);
+        showVerdict();
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mActive = true;
+        mRecognizing.set(false);
+        mCameraThread = new HandlerThread("live-camera");
+        mCameraThread.start();
+        mCameraHandler = new Handler(mCameraThread.getLooper());
+        if (mPreview.isAvailable()) {
+            openCamera();
+        } else {
+            mPreview.setSurfaceTextureListener(mSurfaceListener);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        mActive = false;
+        closeCamera();
+        mCameraThread.quitSafely();
+        try {
+            mCameraThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mCameraThread = null;
+        mCameraHandler = null;
+        // Only now that no frame is being read anymore.
+        if (mReader != null) {
+            mReader.close();
+            mReader = null;
+        }
+        mScanPipeline.cancel();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mScanPipeline.shutdown();
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            mPreprocessor.trimMemory();
+        }
+    }
+
+    private void openCamera() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)
+                != PackageManager.PERMISSION_GRANTED) {
+            finish();
+            return;
+        }
+        CameraManager manager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
+        try {
+            String cameraId = null;
+            CameraCharacteristics characteristics = null;
+            for (String id : manager.getCameraIdList()) {
+                characteristics = manager.getCameraCharacteristics(id);
+                Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+                if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                    cameraId = id;
+                    break;
+                }
+            }
+            if (cameraId == null) {
+                showCameraError();
+                return;
+            }
+            StreamConfigurationMap map =
+                    characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            // The activity is portrait only, so the sensor orientation is the whole rotation.
+            mSensorOrientation = orientation != null ? orientation : 90;
+            Size frameSize = chooseSize(map.getOutputSizes(ImageFormat.YUV_420_888), null);
+            mPreviewSize = chooseSize(map.getOutputSizes(SurfaceTexture.class), frameSize);
+            fitPreview(mPreviewSize);
+
+            mReader = ImageReader.newInstance(frameSize.getWidth(), frameSize.getHeight(),
+                    ImageFormat.YUV_420_888, MAX_FRAMES);
+            mReader.setOnImageAvailableListener(this::onFrame, mCameraHandler);
+            if (!mCameraLock.tryAcquire(CAMERA_LOCK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.d(TAG, "cannot open the camera because closing it timed out");
+                showCameraError();
+                return;
+            }
+            try {
+                manager.openCamera(cameraId, mCameraCallback, mCameraHandler);
+            } catch (CameraAccessException | SecurityException e) {
+                // No callback will release the lock for a camera that never opened.
+                mCameraLock.release();
+                throw e;
+            }
+        } catch (CameraAccessException | SecurityException e) {
+            Log.d(TAG, "cannot open the camera because " + e);
+            showCameraError();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs on the camera thread once the camera is open.
+     */
+    private void startPreview() {
+        try {
+            SurfaceTexture texture = mPreview.getSurfaceTexture();
+            texture.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            Surface previewSurface = new Surface(texture);
+            CaptureRequest.Builder request = mCamera.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            request.addTarget(previewSurface);
+            request.addTarget(mReader.getSurface());
+            request.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            mCamera.createCaptureSession(Arrays.asList(previewSurface, mReader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(@NonNull CameraCaptureSession session) {
+                            if (mCamera == null) {
+                                return;
+                            }
+                            mSession = session;
+                            try {
+                                session.setRepeatingRequest(request.build(), null, mCameraHandler);
+                            } catch (CameraAccessException e) {
+                                Log.d(TAG, "cannot start the preview because " + e);
+                            }
+                        }
+
+                        @Override
+                        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                            mMainHandler.post(() -> showCameraError());
+                        }
+                    }, mCameraHandler);
+        } catch (CameraAccessException e) {
+            Log.d(TAG, "cannot start the preview because " + e);
+            mMainHandler.post(() -> showCameraError());
+        }
+    }
+
+    private void closeCamera() {
+        try {
+            mCameraLock.acquire();
+            if (mSession != null) {
+                mSession.close();
+                mSession = null;
+            }
+            if (mCamera != null) {
+                mCamera.close();
+                mCamera = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            mCameraLock.release();
+        }
+    }
+
+    /**
+     * Runs on the camera thread for every frame the reader has room for.
+     */
+    private void onFrame(ImageReader reader) {
+        Image image = reader.acquireLatestImage();
+        if (image == null) {
+            return;
+        }
+        try {
+            Image.Plane luma = image.getPlanes()[0];
+            long hash = mGate.hash(luma.getBuffer(), luma.getRowStride(), luma.getPixelStride(),
+                    image.getWidth(), image.getHeight());
+            long now = SystemClock.elapsedRealtime();
+            if (!mGate.offer(hash, now) || !mRecognizing.compareAndSet(false, true)) {
+                return;
+            }
+            mGate.onRecognized(hash, now);
+            int generation = mGeneration;
+            EncodedImage frame = mPreprocessor.encode(image, mSensorOrientation, FRAME_QUALITY);
+            mMainHandler.post(() -> {
+                if (mActive && generation == mGeneration) {
+                    mScanPipeline.start(new EncodedImage[]{frame}, new FrameListener(generation));
+                } else {
+                    frame.release();
+                    mRecognizing.set(false);
+                }
+            });
+        } finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Receives the outcome of one frame, which only counts toward the generation it was taken in.
+     */
+    private final class FrameListener implements ScanPipeline.Listener {
+        private final int mFrameGeneration;
+
+        FrameListener(int generation) {
+            mFrameGeneration = generation;
+        }
+
+        @Override
+        public void onScanPreview(Bitmap preview) {
+            // Frames are encoded already, there is nothing to preview.
+            mPreprocessor.recycle(preview);
+        }
+
+        @Override
+        public void onScanResult(VeganVerdict[] verdicts) {
+            mRecognizing.set(false);
+            // Taken before a restart, the frame may show the previous product.
+            if (verdicts[0] != null && mFrameGeneration == mGeneration) {
+                mStabilizer.add(verdicts[0]);
+                showVerdict();
+            }
+        }
+
+        @Override
+        public void onScanImageError(IOException e) {
+            mRecognizing.set(false);
+        }
+
+        @Override
+        public void onScanRecognitionError(IOException e) {
+            // The next new scene tries again.
+            mRecognizing.set(false);
+        }
+    }
+
+    /**
+     * Forgets the frames seen so far, e.g. to scan the next product.
+     */
+    private void restart() {
+        mGeneration++;
+        mStabilizer.reset();
+        if (mCameraHandler != null) {
+            mCameraHandler.post(mGate::reset);
+        }
+        showVerdict();
+    }
+
+    private void showVerdict() {
+        VeganLevel level = mStabilizer.getLevel();
+        if (level == null) {
+            mVerdictView.setText(R.string.live_scan_hint);
+            return;
+        }
+        StringBuilder text = new StringBuilder(MainActivity.convertLevelToString(level));
+        List<String> ingredients = mStabilizer.getIngredients();
+        if (!ingredients.isEmpty()) {
+            text.append("\n").append(TextUtils.join(", ", ingredients));
+        }
+        text.append("\n").append(mStabilizer.getFrameCount()).append("개 장면 분석됨");
+        mVerdictView.setText(text);
+    }
+
+    private void showCameraError() {
+        Toast.makeText(this, R.string.live_scan_camera_error, Toast.LENGTH_LONG).show();
+        finish();
+    }
+
+    /**
+     * Sizes the preview to the aspect ratio of the camera output, rotated to portrait.
+     */
+    private void fitPreview(Size size) {
+        ViewGroup.LayoutParams params = mPreview.getLayoutParams();
+        params.height = mPreview.getWidth() * Math.max(size.getWidth(), size.getHeight())
+                / Math.min(size.getWidth(), size.getHeight());
+        mPreview.setLayoutParams(params);
+    }
+
+    /**
+     * @param aspect the size whose aspect ratio the chosen one must have, if any of them does.
+     * @return the size whose long side is closest to {@link #FRAME_LONG_SIDE}.
+     */
+    private static Size chooseSize(Size[] sizes, Size aspect) {
+        Size best = null;
+        for (int pass = 0; pass < 2 && best == null; pass++) {
+            for (Size size : sizes) {
+                if (pass == 0 && aspect != null && (long) size.getWidth() * aspect.getHeight()
+                        != (long) size.getHeight() * aspect.getWidth()) {
+                    continue;
+                }
+                if (best == null || distance(size) < distance(best)) {
+                    best = size;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int distance(Size size) {
+        return Math.abs(Math.max(size.getWidth(), size.getHeight()) - FRAME_LONG_SIDE);
+    }
+}
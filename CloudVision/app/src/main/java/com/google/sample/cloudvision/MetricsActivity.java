@@ -0,0 +1,66 @@
+package com.google.sample.cloudvision;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+/**
+ * Debug screen with the p50, p95 and p99 of every scan stage recorded by {@link ScanMetrics}.
+ * The export shares the full histograms in the HdrHistogram log format.
+ */
+public class MetricsActivity extends AppCompatActivity {
+    private TextView mSummary;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+        mSummary = findViewById(R.id.metrics_summary);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        showSummary();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_metrics, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_export_metrics:
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/plain");
+                intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.action_scan_metrics));
+                intent.putExtra(Intent.EXTRA_TEXT, ScanMetrics.getInstance().export());
+                startActivity(Intent.createChooser(intent, getString(R.string.action_export_metrics)));
+                return true;
+            case R.id.action_reset_metrics:
+                ScanMetrics.getInstance().reset();
+                showSummary();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void showSummary() {
+        ScanMetrics metrics = ScanMetrics.getInstance();
+        if (metrics.isEmpty()) {
+            mSummary.setText(R.string.metrics_empty);
+        } else {
+            mSummary.setText(metrics.summarize());
+        }
+    }
+}
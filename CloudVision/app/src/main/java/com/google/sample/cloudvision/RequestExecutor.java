@@ -0,0 +1,247 @@
+package com.google.sample.cloudvision;
+
+import com.google.api.client.http.HttpResponseException;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs remote calls with retries, hedging and deduplication.
+ *
+ * A failed attempt is retried after an exponential backoff with full jitter, as long as the
+ * failure may be transient, the attempts are not used up and the retry would start before the
+ * call's deadline. Once enough calls have succeeded to know the p95 latency, an attempt still
+ * running after that long gets one hedged duplicate, and whichever answers first wins. Calls
+ * submitted with the key of a call still in flight share its result instead of running again.
+ *
+ * Each attempt is bounded by the connect and read timeouts of the request it makes; the executor
+ * does not interrupt attempts.
+ */
+public class RequestExecutor {
+    /**
+     * One remote call, attempted as often as needed, possibly concurrently with itself.
+     */
+    public interface Call<V> {
+        V attempt() throws IOException;
+
+        /**
+         * No attempt of the call runs or starts anymore; whatever the attempts share can be
+         * released.
+         */
+        default void close() {
+        }
+    }
+
+    private static final long MAX_LATENCY_MS = TimeUnit.MINUTES.toMillis(2);
+    // Successful calls needed before their p95 is trusted for hedging.
+    private static final int HEDGE_MIN_SAMPLES = 20;
+    private static final long HEDGE_MIN_DELAY_MS = 200;
+
+    private final int mMaxAttempts;
+    private final long mInitialBackoffMs;
+    private final long mMaxBackoffMs;
+    private final long mDeadlineMs;
+    private final boolean mHedging;
+    private final ThreadPoolExecutor mWorkers;
+    private final ScheduledThreadPoolExecutor mTimer;
+    private final ConcurrentMap<String, CompletableFuture<?>> mInFlight = new ConcurrentHashMap<>();
+    private final Random mRandom = new Random();
+    // Guarded by itself. Latency of the attempts that answered a call, in milliseconds.
+    private final Histogram mLatency = new Histogram(MAX_LATENCY_MS, 2);
+
+    /**
+     * @param maxAttempts      how often a call is attempted at most, hedges not counted.
+     * @param initialBackoffMs the backoff cap before the first retry, doubled for every further one.
+     * @param maxBackoffMs     the largest backoff cap.
+     * @param deadlineMs       how long after its submission a call may start a new attempt.
+     * @param hedging          whether slow attempts get a hedged duplicate.
+     * @param threads          how many attempts may run at the same time.
+     */
+    public RequestExecutor(int maxAttempts, long initialBackoffMs, long maxBackoffMs,
+                           long deadlineMs, boolean hedging, int threads) {
+        mMaxAttempts = maxAttempts;
+        mInitialBackoffMs = initialBackoffMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mDeadlineMs = deadlineMs;
+        mHedging = hedging;
+        mWorkers = ScanPipeline.newExecutor("request", threads, 2 * threads);
+        mTimer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "request-timer");
+            // Only waits for backoffs and hedges, which are pointless once the app is gone.
+            thread.setDaemon(true);
+            return thread;
+        });
+        mTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Runs the call, or joins the call with the same key that is still in flight.
+     *
+     * @return the shared result; the caller must not complete or cancel it.
+     */
+    @SuppressWarnings("unchecked")
+    public <V> CompletableFuture<V> submit(String key, Call<V> call) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<?> existing = mInFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            call.close();
+            return (CompletableFuture<V>) existing;
+        }
+        future.whenComplete((result, error) -> mInFlight.remove(key, future));
+        new Execution<>(call, future).launch();
+        return future;
+    }
+
+    /**
+     * @return the p95 latency of successful calls, or -1 while there are too few of them.
+     */
+    long getHedgeDelayMs() {
+        synchronized (mLatency) {
+            if (mLatency.getTotalCount() < HEDGE_MIN_SAMPLES) {
+                return -1;
+            }
+            return Math.max(HEDGE_MIN_DELAY_MS, mLatency.getValueAtPercentile(95));
+        }
+    }
+
+    private void recordLatency(long elapsedMs) {
+        synchronized (mLatency) {
+            mLatency.recordValue(Math.max(0, Math.min(elapsedMs, MAX_LATENCY_MS)));
+        }
+    }
+
+    /**
+     * @return whether trying again may succeed: network failures and the HTTP statuses of
+     * overload and timeouts, but not other rejected requests.
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof HttpResponseException) {
+            int status = ((HttpResponseException) e).getStatusCode();
+            return status == 408 || status == 429 || status >= 500;
+        }
+        return true;
+    }
+
+    /**
+     * @return a random backoff between 0 and the cap for the retry after the given attempt.
+     */
+    long backoffMs(int attempt) {
+        long cap = Math.min(mMaxBackoffMs, mInitialBackoffMs << Math.min(attempt - 1, 20));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * cap);
+        }
+    }
+
+    private final class Execution<V> {
+        private final Call<V> mCall;
+        private final CompletableFuture<V> mFuture;
+        private final long mDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mDeadlineMs);
+        // Guarded by this.
+        private int mAttempts;
+        private int mRunning;
+        private boolean mHedged;
+        private boolean mClosed;
+
+        Execution(Call<V> call, CompletableFuture<V> future) {
+            mCall = call;
+            mFuture = future;
+        }
+
+        /**
+         * Starts an attempt and, unless the call was hedged before, the timer for its hedge.
+         */
+        void launch() {
+            boolean hedged;
+            synchronized (this) {
+                mAttempts++;
+                mRunning++;
+                hedged = mHedged;
+            }
+            start();
+            long hedgeDelayMs = mHedging && !hedged ? getHedgeDelayMs() : -1;
+            if (hedgeDelayMs >= 0) {
+                mTimer.schedule(this::hedge, hedgeDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void hedge() {
+            synchronized (this) {
+                if (mFuture.isDone() || mHedged || mRunning == 0) {
+                    return;
+                }
+                mHedged = true;
+                mRunning++;
+            }
+            start();
+        }
+
+        private void start() {
+            try {
+                mWorkers.execute(this::run);
+            } catch (RejectedExecutionException e) {
+                finish(new IOException("too many requests in flight", e));
+            }
+        }
+
+        private void run() {
+            long start = System.nanoTime();
+            try {
+                V result = mCall.attempt();
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                mFuture.complete(result);
+                finish(null);
+            } catch (IOException e) {
+                finish(e);
+            } catch (RuntimeException e) {
+                mFuture.completeExceptionally(e);
+                finish(null);
+            }
+        }
+
+        /**
+         * Ends an attempt, retrying after a backoff if it failed and no other attempt is running.
+         */
+        private void finish(IOException error) {
+            boolean retry = false;
+            long backoffMs = 0;
+            synchronized (this) {
+                mRunning--;
+                if (error != null && !mFuture.isDone() && mRunning == 0) {
+                    backoffMs = backoffMs(mAttempts);
+                    retry = isRetryable(error) && mAttempts < mMaxAttempts
+                            && System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs) < mDeadline;
+                    if (!retry) {
+                        mFuture.completeExceptionally(error);
+                    }
+                }
+            }
+            if (retry) {
+                try {
+                    mTimer.schedule(this::launch, backoffMs, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    mFuture.completeExceptionally(error);
+                }
+            }
+            closeIfSettled();
+        }
+
+        private void closeIfSettled() {
+            synchronized (this) {
+                if (mClosed || mRunning > 0 || !mFuture.isDone()) {
+                    return;
+                }
+                mClosed = true;
+            }
+            mCall.close();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.google.sample.cloudvision;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-device history of the scanned pictures, kept in SQLite.
+ *
+ * Every picture with label text gets a row with its verdict, which carries the OCR text, and a
+ * small JPEG thumbnail next to the database. Pictures without text are not kept: their verdict
+ * says nothing about the product. The barcode and the fingerprint of the text are indexed: a
+ * picture whose barcode was scanned before is answered from its row without OCR or network,
+ * and scanning a product again updates its row instead of adding one.
+ * Writes, thumbnails included, run on a single background thread in the order they were
+ * recorded. The history keeps the {@link #MAX_ENTRIES} most recent rows.
+ */
+public class ScanHistory extends SQLiteOpenHelper {
+    static final int MAX_ENTRIES = 500;
+    /** The longer side of the thumbnails in pixels. */
+    static final int THUMBNAIL_SIZE = 160;
+
+    private static final String TAG = ScanHistory.class.getSimpleName();
+    private static final String DATABASE = "scan-history.db";
+    private static final int SCHEMA_VERSION = 1;
+    private static final String THUMBNAILS = "history-thumbnails";
+    private static final int THUMBNAIL_QUALITY = 80;
+    private static final int WRITE_QUEUE_CAPACITY = 32;
+
+    private static final String TABLE = "scans";
+    private static final String ID = "_id";
+    private static final String SCANNED_AT = "scanned_at";
+    private static final String BARCODE = "barcode";
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String LEVEL = "level";
+    private static final String DICTIONARY_VERSION = "dictionary_version";
+    private static final String VERDICT = "verdict";
+    private static final String[] COLUMNS =
+            {ID, SCANNED_AT, BARCODE, FINGERPRINT, DICTIONARY_VERSION, VERDICT};
+
+    private static volatile ScanHistory sInstance;
+
+    private final File mThumbnails;
+    private final ThreadPoolExecutor mWriter =
+            ScanPipeline.newExecutor("history", 1, WRITE_QUEUE_CAPACITY);
+
+    /**
+     * A scanned picture.
+     */
+    public static final class Entry {
+        private final long mId;
+        private final long mScannedAt;
+        private final String mBarcode;
+        private final String mFingerprint;
+        private final VeganVerdict mVerdict;
+        private final int mDictionaryVersion;
+        private final File mThumbnail;
+
+        Entry(long id, long scannedAt, String barcode, String fingerprint, VeganVerdict verdict,
+              int dictionaryVersion, File thumbnail) {
+            mId = id;
+            mScannedAt = scannedAt;
+            mBarcode = barcode;
+            mFingerprint = fingerprint;
+            mVerdict = verdict;
+            mDictionaryVersion = dictionaryVersion;
+            mThumbnail = thumbnail;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        /**
+         * @return when the picture was last scanned, in milliseconds since the epoch.
+         */
+        public long getScannedAt() {
+            return mScannedAt;
+        }
+
+        /**
+         * @return the product barcode on the picture, null if none was read.
+         */
+        public String getBarcode() {
+            return mBarcode;
+        }
+
+        public String getFingerprint() {
+            return mFingerprint;
+        }
+
+        public VeganVerdict getVerdict() {
+            return mVerdict;
+        }
+
+        /**
+         * @return the ingredient dictionary version the verdict was found with.
+         */
+        public int getDictionaryVersion() {
+            return mDictionaryVersion;
+        }
+
+        /**
+         * @return the JPEG thumbnail, null if it is not written (yet).
+         */
+        public File getThumbnail() {
+            return mThumbnail.exists() ? mThumbnail : null;
+        }
+    }
+
+    private ScanHistory(Context context) {
+        super(context, DATABASE, null, SCHEMA_VERSION);
+        mThumbnails = new File(context.getFilesDir(), THUMBNAILS);
+    }
+
+    public static ScanHistory getInstance(Context context) {
+        ScanHistory instance = sInstance;
+        if (instance == null) {
+            synchronized (ScanHistory.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new ScanHistory(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + SCANNED_AT + " INTEGER NOT NULL, "
+                + BARCODE + " TEXT, "
+                + FINGERPRINT + " TEXT NOT NULL, "
+                + LEVEL + " TEXT NOT NULL, "
+                + DICTIONARY_VERSION + " INTEGER NOT NULL, "
+                + VERDICT + " BLOB NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + BARCODE + " ON " + TABLE + " (" + BARCODE + ")");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + FINGERPRINT + " ON " + TABLE + " (" + FINGERPRINT + ")");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + SCANNED_AT + " ON " + TABLE + " (" + SCANNED_AT + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // There is only one schema so far.
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of the normalized letters of the text, which stays the
+     * same when only the spacing, line breaks or separators of the OCR text differ.
+     */
+    public static String fingerprintOf(String text) {
+        TextNormalizer.Text normalized = TextNormalizer.normalize(text);
+        StringBuilder letters = new StringBuilder(normalized.length());
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c != ' ' && c != '\n') {
+                letters.append(c);
+            }
+        }
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            byte[] digest = sha256.digest(letters.toString().getBytes(StandardCharsets.UTF_8));
+            return BaseEncoding.base16().lowerCase().encode(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return whether the verdict was found on label text, which {@link #record} requires.
+     */
+    public static boolean hasText(VeganVerdict verdict) {
+        return verdict.getText() != null && !verdict.getText().trim().isEmpty();
+    }
+
+    /**
+     * @return a thumbnail of the bitmap for {@link #record}.
+     */
+    public static Bitmap thumbnailOf(Bitmap bitmap) {
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        int width = Math.max(1, bitmap.getWidth() * THUMBNAIL_SIZE / longSide);
+        int height = Math.max(1, bitmap.getHeight() * THUMBNAIL_SIZE / longSide);
+        return Bitmap.createScaledBitmap(bitmap, width, height, true);
+    }
+
+    /**
+     * Looks up the most recent picture with the barcode. Must not be called on the UI thread.
+     *
+     * @return the entry, or null if there is none with label text.
+     */
+    public Entry findByBarcode(String barcode) {
+        Entry entry = findFirst(BARCODE + " = ?", barcode);
+        return entry != null && hasText(entry.getVerdict()) ? entry : null;
+    }
+
+    /**
+     * Adds a scanned picture in the background, or updates the row of the same product if its
+     * barcode or text was scanned before.
+     *
+     * @param barcode   the product barcode on the picture, null if none was read.
+     * @param verdict   a verdict with label text, see {@link #hasText}.
+     * @param thumbnail the thumbnail to store, owned and recycled by the history from now on.
+     */
+    public void record(String barcode, VeganVerdict verdict, int dictionaryVersion, Bitmap thumbnail) {
+        if (!hasText(verdict)) {
+            throw new IllegalArgumentException("no label text to record");
+        }
+        long scannedAt = System.currentTimeMillis();
+        try {
+            mWriter.execute(() -> write(scannedAt, barcode, verdict, dictionaryVersion, thumbnail));
+        } catch (RejectedExecutionException e) {
+            Log.d(TAG, "dropping a history entry, too many writes pending");
+            if (thumbnail != null) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    private void write(long scannedAt, String barcode, VeganVerdict verdict, int dictionaryVersion,
+                       Bitmap thumbnail) {
+        long start = System.nanoTime();
+        try {
+            String fingerprint = fingerprintOf(verdict.getText());
+            ContentValues values = new ContentValues();
+            values.put(SCANNED_AT, scannedAt);
+            values.put(FINGERPRINT, fingerprint);
+            values.put(LEVEL, verdict.getLevel().name());
+            values.put(DICTIONARY_VERSION, dictionaryVersion);
+            values.put(VERDICT, serialize(verdict));
+            if (barcode != null) {
+                values.put(BARCODE, barcode);
+            }
+
+            SQLiteDatabase db = getWritableDatabase();
+            long id;
+            db.beginTransaction();
+            try {
+                id = findProduct(db, barcode, fingerprint);
+                if (id >= 0) {
+                    db.update(TABLE, values, ID + " = ?", new String[]{Long.toString(id)});
+                } else {
+                    id = db.insertOrThrow(TABLE, null, values);
+                }
+                trim(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            if (thumbnail != null) {
+                writeThumbnail(id, thumbnail);
+            }
+            Log.d(TAG, "recorded entry " + id + " in "
+                    + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + " us");
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "cannot record a scan because " + e);
+        } finally {
+            if (thumbnail != null) {
+                thumbnail.recycle();
+            }
+        }
+    }
+
+    /**
+     * @return the row of the same product, found by barcode or else by text, or -1.
+     */
+    private static long findProduct(SQLiteDatabase db, String barcode, String fingerprint) {
+        long id = -1;
+        if (barcode != null) {
+            id = findId(db, BARCODE + " = ?", barcode);
+        }
+        if (id < 0) {
+            id = findId(db, FINGERPRINT + " = ?", fingerprint);
+        }
+        return id;
+    }
+
+    private static long findId(SQLiteDatabase db, String selection, String argument) {
+        try (Cursor cursor = db.query(TABLE, new String[]{ID}, selection, new String[]{argument},
+                null, null, SCANNED_AT + " DESC", "1")) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+    }
+
+    /**
+     * Deletes the rows beyond the most recent {@link #MAX_ENTRIES} and their thumbnails.
+     */
+    private void trim(SQLiteDatabase db) {
+        List<Long> expired = new ArrayList<>();
+        try (Cursor cursor = db.rawQuery("SELECT " + ID + " FROM " + TABLE + " ORDER BY " + SCANNED_AT
+                + " DESC LIMIT -1 OFFSET " + MAX_ENTRIES, null)) {
+            while (cursor.moveToNext()) {
+                expired.add(cursor.getLong(0));
+            }
+        }
+        for (long id : expired) {
+            db.delete(TABLE, ID + " = ?", new String[]{Long.toString(id)});
+            thumbnailFile(id).delete();
+        }
+    }
+
+    private Entry findFirst(String selection, String argument) {
+        long start = System.nanoTime();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, selection,
+                new String[]{argument}, null, null, SCANNED_AT + " DESC", "1")) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            long id = cursor.getLong(0);
+            Entry entry = new Entry(id, cursor.getLong(1), cursor.getString(2), cursor.getString(3),
+                    deserialize(cursor.getBlob(5)), cursor.getInt(4), thumbnailFile(id));
+            Log.d(TAG, "found entry " + id + " in "
+                    + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + " us");
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "cannot read the history because " + e);
+            return null;
+        }
+    }
+
+    private void writeThumbnail(long id, Bitmap thumbnail) throws IOException {
+        if (!mThumbnails.isDirectory() && !mThumbnails.mkdirs()) {
+            throw new IOException("cannot create " + mThumbnails);
+        }
+        File file = thumbnailFile(id);
+        File temporary = new File(mThumbnails, id + ".tmp");
+        try (OutputStream out = new FileOutputStream(temporary)) {
+            thumbnail.compress(Bitmap.CompressFormat.JPEG, THUMBNAIL_QUALITY, out);
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+            throw new IOException("cannot write " + file);
+        }
+    }
+
+    private File thumbnailFile(long id) {
+        return new File(mThumbnails, id + ".jpg");
+    }
+
+    private static byte[] serialize(VeganVerdict verdict) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(verdict.sizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            verdict.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static VeganVerdict deserialize(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return VeganVerdict.readFrom(in);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.google.sample.cloudvision;
+
+import android.util.Base64;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide latency histograms of every stage of a scan.
+ *
+ * Each stage records into its own HdrHistogram {@link Recorder}, which is wait free for the
+ * recording threads and allocates nothing, so the scan threads can record every step. Reading
+ * moves what was recorded since the last read into a histogram of everything since the start or
+ * the last {@link #reset()}. Values are kept in microseconds with two significant digits, up to
+ * {@link #MAX_MICROS}; longer steps are recorded as that.
+ */
+public final class ScanMetrics {
+    /**
+     * The measured steps of a scan, in the order they run.
+     */
+    public enum Stage {
+        /** Reading and decoding the picture, scaled on the fly where the decoder can. */
+        DECODE,
+        /** Scaling what the decoder could not scale to the upload size. */
+        SCALE,
+        /** Looking for a product barcode in the decoded picture. */
+        BARCODE,
+        /** JPEG compression. */
+        COMPRESS,
+        /** Base64 encoding into the request, CPU time only as it is streamed to the socket. */
+        BASE64,
+        /** From sending the request to the response headers. */
+        NETWORK,
+        /** Reading and parsing the JSON response. */
+        PARSE,
+        /** Text recognition on the device. */
+        ON_DEVICE_OCR,
+        /** Matching the text against the dictionary. */
+        CLASSIFY,
+        /** A whole scan, from picking the pictures to showing the result. */
+        SCAN,
+        /** The first scan of the process, which pays for whatever the startup warmup did not do. */
+        FIRST_SCAN
+    }
+
+    static final long MAX_MICROS = TimeUnit.MINUTES.toMicros(2);
+    private static final int SIGNIFICANT_DIGITS = 2;
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final ScanMetrics sInstance = new ScanMetrics();
+
+    private final Recorder[] mRecorders = new Recorder[STAGES.length];
+    // Guarded by this.
+    private final Histogram[] mTotals = new Histogram[STAGES.length];
+    private final Histogram mInterval = new Histogram(MAX_MICROS, SIGNIFICANT_DIGITS);
+    private long mStartTimeMillis = System.currentTimeMillis();
+
+    private ScanMetrics() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mRecorders[i] = new Recorder(MAX_MICROS, SIGNIFICANT_DIGITS);
+            mTotals[i] = new Histogram(MAX_MICROS, SIGNIFICANT_DIGITS);
+        }
+    }
+
+    public static ScanMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Records how long one run of the stage took. Safe to call from any thread.
+     */
+    public void record(Stage stage, long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        mRecorders[stage.ordinal()].recordValue(Math.max(0, Math.min(micros, MAX_MICROS)));
+    }
+
+    /**
+     * @return a copy of everything recorded for the stage since the start or the last reset.
+     */
+    public synchronized Histogram getHistogram(Stage stage) {
+        int i = stage.ordinal();
+        mRecorders[i].getIntervalHistogramInto(mInterval);
+        mTotals[i].add(mInterval);
+        return mTotals[i].copy();
+    }
+
+    /**
+     * @return whether nothing was recorded since the start or the last reset.
+     */
+    public boolean isEmpty() {
+        for (Stage stage : STAGES) {
+            if (getHistogram(stage).getTotalCount() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mRecorders[i].reset();
+            mTotals[i].reset();
+        }
+        mStartTimeMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return a table of the count and the p50, p95, p99 and max in milliseconds of every stage
+     * that was recorded at all.
+     */
+    public String summarize() {
+        StringBuilder table = new StringBuilder(String.format(Locale.US,
+                "%-14s %6s %8s %8s %8s %8s%n", "stage (ms)", "count", "p50", "p95", "p99", "max"));
+        for (Stage stage : STAGES) {
+            Histogram histogram = getHistogram(stage);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            table.append(String.format(Locale.US, "%-14s %6d %8.1f %8.1f %8.1f %8.1f%n",
+                    stage.name().toLowerCase(Locale.US), histogram.getTotalCount(),
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(95)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getMaxValue())));
+        }
+        return table.toString();
+    }
+
+    /**
+     * @return the summary followed by every stage's histogram as a tagged line of the
+     * HdrHistogram log format, which its tools (e.g. HistogramLogProcessor) read back in full.
+     * Values are in microseconds.
+     */
+    public synchronized String export() {
+        StringBuilder dump = new StringBuilder();
+        for (String line : summarize().split("\n")) {
+            dump.append("# ").append(line).append('\n');
+        }
+        double start = mStartTimeMillis / 1000.0;
+        double length = (System.currentTimeMillis() - mStartTimeMillis) / 1000.0;
+        dump.append("#[Histogram log format version 1.3]\n")
+                .append(String.format(Locale.US, "#[StartTime: %.3f (seconds since epoch)]%n", start))
+                .append("\"StartTimestamp\",\"Interval_Length\",\"Interval_Max\",\"Interval_Compressed_Histogram\"\n");
+        for (Stage stage : STAGES) {
+            Histogram histogram = getHistogram(stage);
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+            int size = histogram.encodeIntoCompressedByteBuffer(buffer);
+            // android.util.Base64, the library's own encoder needs java.util.Base64 (API 26).
+            dump.append(String.format(Locale.US, "Tag=%s,%.3f,%.3f,%.3f,", stage.name(), 0.0, length,
+                    histogram.getMaxValue() / 1000000.0))
+                    .append(Base64.encodeToString(buffer.array(), 0, size, Base64.NO_WRAP))
+                    .append('\n');
+        }
+        return dump.toString();
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
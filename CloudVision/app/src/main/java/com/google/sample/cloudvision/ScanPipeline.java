@@ -0,0 +1,500 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.MainThread;
+import android.util.Log;
+
+import com.google.api.client.http.HttpResponseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs scans off the UI thread, one scan at a time.
+ *
+ * A scan goes through two stages on their own bounded executors. The image stage decodes,
+ * scales and encodes every picture, several in parallel, and reads its barcode. Once all of
+ * them are ready, the recognition stage looks them up in the {@link ScanResultCache} and, by
+ * barcode, in the {@link ScanHistory}, has the rest recognized by
+ * the {@link TextRecognizer} that {@link TextRecognizerPolicy} picks and classifies the text.
+ * Classification takes microseconds with the compiled dictionary, so it runs right after
+ * recognition on the same thread. The verdicts of picked pictures then go to the history.
+ *
+ * Frames of a live scan come already encoded and go straight to the recognition stage.
+ *
+ * Starting a scan cancels the previous one. The stages check for cancellation between steps
+ * and drop their work; a request that is already on the wire is let finish, its text still goes
+ * to the cache. Results are delivered to the {@link Listener} on the main thread, and never for a
+ * cancelled scan.
+ */
+public class ScanPipeline {
+    /**
+     * Receives the outcome of a scan on the main thread.
+     */
+    public interface Listener {
+        /**
+         * The first picture is decoded. The listener owns the bitmap from now on.
+         */
+        void onScanPreview(Bitmap preview);
+
+        /**
+         * @param verdicts the verdict of every picture, null for a picture that could not be
+         *                 recognized.
+         */
+        void onScanResult(VeganVerdict[] verdicts);
+
+        /**
+         * A picture could not be read, the scan is abandoned.
+         */
+        void onScanImageError(IOException e);
+
+        /**
+         * No text could be recognized at all. A scan that recognized some of its pictures
+         * delivers their verdicts instead.
+         */
+        void onScanRecognitionError(IOException e);
+    }
+
+    private static final String TAG = ScanPipeline.class.getSimpleName();
+    private static final int IMAGE_THREADS = 2;
+    private static final int IMAGE_QUEUE_CAPACITY = 32;
+    // A cancelled scan may still wait on the network, the next one gets the other thread.
+    private static final int RECOGNITION_THREADS = 2;
+    private static final int RECOGNITION_QUEUE_CAPACITY = 4;
+
+    private final Context mContext;
+    private final ImagePreprocessor mPreprocessor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mImageExecutor =
+            newExecutor("scan-image", IMAGE_THREADS, IMAGE_QUEUE_CAPACITY);
+    private final ThreadPoolExecutor mRecognitionExecutor =
+            newExecutor("scan-recognition", RECOGNITION_THREADS, RECOGNITION_QUEUE_CAPACITY);
+    private Scan mScan;
+
+    public ScanPipeline(Context context, ImagePreprocessor preprocessor) {
+        mContext = context.getApplicationContext();
+        mPreprocessor = preprocessor;
+    }
+
+    /**
+     * Scans the pictures of one product, cancelling the scan in progress.
+     */
+    @MainThread
+    public void start(List<Uri> uris, Listener listener) {
+        cancel();
+        mScan = new Scan(uris, new EncodedImage[uris.size()], listener);
+        mScan.start();
+    }
+
+    /**
+     * Recognizes and classifies pictures that are already encoded, like camera frames,
+     * cancelling the scan in progress. The pipeline releases the images when it is done.
+     */
+    @MainThread
+    public void start(EncodedImage[] images, Listener listener) {
+        cancel();
+        mScan = new Scan(Collections.emptyList(), images.clone(), listener);
+        mScan.start();
+    }
+
+    /**
+     * Cancels the scan in progress, if any. Its listener is not called anymore.
+     */
+    @MainThread
+    public void cancel() {
+        if (mScan != null) {
+            mScan.cancel();
+            mScan = null;
+        }
+    }
+
+    /**
+     * Cancels the scan in progress and stops the threads once they are idle.
+     */
+    @MainThread
+    public void shutdown() {
+        cancel();
+        mImageExecutor.shutdown();
+        mRecognitionExecutor.shutdown();
+    }
+
+    /**
+     * @return a bounded executor of background priority threads that stop when idle.
+     */
+    static ThreadPoolExecutor newExecutor(String name, int threads, int capacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity), runnable ->
+                new Thread(() -> {
+                    // Keeps the scan from competing with the UI thread for a core.
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }, name + "-" + count.incrementAndGet()));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private final class Scan {
+        private final List<Uri> mUris;
+        private final Listener mListener;
+        private final EncodedImage[] mImages;
+        // The product barcode of every picture, if one was read.
+        private final String[] mBarcodes;
+        // Guarded by this. Thumbnails for the history, until they are handed to it.
+        private final Bitmap[] mThumbnails;
+        // The time every picture spent in each stage, indexed by VeganVerdict.Stage.
+        private final long[][] mStageNanos;
+        // Pictures still in the image stage; the last one out starts recognition.
+        private final AtomicInteger mPreparing;
+        private final long mStartNanos = System.nanoTime();
+        // Guarded by this. A cancelled scan delivers nothing, a failed one only its error.
+        private boolean mCancelled;
+        private boolean mFailed;
+
+        /**
+         * @param images the encoded pictures, or as many nulls as there are uris to prepare.
+         */
+        Scan(List<Uri> uris, EncodedImage[] images, Listener listener) {
+            mUris = new ArrayList<>(uris);
+            mListener = listener;
+            mImages = images;
+            mBarcodes = new String[images.length];
+            mThumbnails = new Bitmap[images.length];
+            mStageNanos = new long[images.length][VeganVerdict.Stage.values().length];
+            mPreparing = new AtomicInteger(uris.size());
+        }
+
+        void start() {
+            if (mUris.isEmpty()) {
+                startRecognition();
+                return;
+            }
+            for (int i = 0; i < mUris.size(); i++) {
+                int index = i;
+                try {
+                    mImageExecutor.execute(() -> prepare(index));
+                } catch (RejectedExecutionException e) {
+                    fail(new IOException("too many pictures in flight", e));
+                    finishPreparing();
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+        }
+
+        synchronized boolean isCancelled() {
+            return mCancelled;
+        }
+
+        synchronized boolean isStopped() {
+            return mCancelled || mFailed;
+        }
+
+        /**
+         * The image stage of one picture.
+         */
+        private void prepare(int index) {
+            // Held until handed on, so that a failure half way recycles them.
+            Bitmap bitmap = null;
+            Bitmap thumbnail = null;
+            try {
+                if (isStopped()) {
+                    return;
+                }
+                Uri uri = mUris.get(index);
+                // crop and scale the image to save on bandwidth
+                long start = System.nanoTime();
+                EncodingSettings settings = mPreprocessor.analyze(uri);
+                bitmap = mPreprocessor.decode(uri, settings);
+                mStageNanos[index][VeganVerdict.Stage.DECODE.ordinal()] = System.nanoTime() - start;
+                mBarcodes[index] = readBarcode(bitmap);
+                thumbnail = ScanHistory.thumbnailOf(bitmap);
+                start = System.nanoTime();
+                EncodedImage image = mPreprocessor.encode(bitmap, settings.getQuality());
+                mStageNanos[index][VeganVerdict.Stage.ENCODE.ordinal()] = System.nanoTime() - start;
+                synchronized (this) {
+                    if (mCancelled || mFailed) {
+                        image.release();
+                    } else {
+                        mImages[index] = image;
+                        mThumbnails[index] = thumbnail;
+                        thumbnail = null;
+                    }
+                }
+                if (index == 0) {
+                    Bitmap preview = bitmap;
+                    bitmap = null;
+                    deliver(() -> mListener.onScanPreview(preview), () -> mPreprocessor.recycle(preview));
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                // E.g. a picture too narrow to scale, which must not leave a hole in mImages.
+                fail(new IOException("cannot prepare the picture", e));
+            } finally {
+                if (thumbnail != null) {
+                    thumbnail.recycle();
+                }
+                if (bitmap != null) {
+                    mPreprocessor.recycle(bitmap);
+                }
+                finishPreparing();
+            }
+        }
+
+        private String readBarcode(Bitmap bitmap) {
+            long start = System.nanoTime();
+            String barcode = BarcodeReader.getInstance(mContext).read(bitmap);
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.BARCODE, System.nanoTime() - start);
+            return barcode;
+        }
+
+        private void fail(IOException e) {
+            Log.d(TAG, "Image picking failed because " + e.getMessage());
+            synchronized (this) {
+                if (mFailed) {
+                    return;
+                }
+                mFailed = true;
+            }
+            deliver(() -> mListener.onScanImageError(e), null);
+        }
+
+        private void finishPreparing() {
+            if (mPreparing.decrementAndGet() == 0) {
+                startRecognition();
+            }
+        }
+
+        private void startRecognition() {
+            if (isStopped()) {
+                releaseImages();
+                return;
+            }
+            try {
+                mRecognitionExecutor.execute(this::recognize);
+            } catch (RejectedExecutionException e) {
+                releaseImages();
+                deliver(() -> mListener.onScanRecognitionError(new IOException(e)), null);
+            }
+        }
+
+        private synchronized void releaseImages() {
+            for (int i = 0; i < mImages.length; i++) {
+                if (mImages[i] != null) {
+                    mImages[i].release();
+                    mImages[i] = null;
+                }
+                if (mThumbnails[i] != null) {
+                    mThumbnails[i].recycle();
+                    mThumbnails[i] = null;
+                }
+            }
+        }
+
+        /**
+         * The recognition stage, for all pictures at once.
+         */
+        private void recognize() {
+            try {
+                if (isCancelled()) {
+                    return;
+                }
+                IngredientDictionary dictionary = IngredientDictionary.getInstance(mContext);
+                ScanResultCache cache = ScanResultCache.getInstance(mContext);
+                ScanHistory history = ScanHistory.getInstance(mContext);
+
+                // A null verdict marks an image that could not be recognized.
+                VeganVerdict[] verdicts = new VeganVerdict[mImages.length];
+                String[] keys = new String[mImages.length];
+                List<Integer> pending = new ArrayList<>();
+                int known = 0;
+                for (int i = 0; i < mImages.length; i++) {
+                    keys[i] = mImages[i].getKey();
+                    ScanResultCache.Entry cached = cache.get(keys[i]);
+                    ScanHistory.Entry scanned = cached == null && mBarcodes[i] != null
+                            ? history.findByBarcode(mBarcodes[i]) : null;
+                    if (cached != null) {
+                        if (cached.getDictionaryVersion() == dictionary.getVersion()) {
+                            verdicts[i] = cached.getVerdict().withStageNanos(mStageNanos[i]);
+                        } else {
+                            // Classified with older keyword lists, only the OCR text is still valid.
+                            verdicts[i] = classify(i, cached.getVerdict().getText(), dictionary);
+                            cache.put(keys[i], new ScanResultCache.Entry(verdicts[i], dictionary.getVersion()));
+                        }
+                    } else if (scanned != null) {
+                        // The same product was scanned before, its text does not need reading again.
+                        known++;
+                        verdicts[i] = scanned.getDictionaryVersion() == dictionary.getVersion()
+                                ? scanned.getVerdict().withStageNanos(mStageNanos[i])
+                                : classify(i, scanned.getVerdict().getText(), dictionary);
+                    } else {
+                        pending.add(i);
+                    }
+                }
+                Log.d(TAG, (mImages.length - pending.size() - known) + " of " + mImages.length
+                        + " images answered from cache, " + known + " by barcode from history, " + cache);
+
+                if (!pending.isEmpty()) {
+                    long payloadBytes = 0;
+                    for (int index : pending) {
+                        payloadBytes += mImages[index].getLength();
+                    }
+                    TextRecognizerPolicy policy = TextRecognizerPolicy.getInstance(mContext);
+                    TextRecognizer recognizer = policy.choose(payloadBytes);
+                    try {
+                        try {
+                            recognize(recognizer, policy, pending, keys, verdicts, dictionary, cache);
+                        } catch (IOException e) {
+                            TextRecognizer fallback = policy.getFallback(recognizer);
+                            if (fallback == null || isCancelled()) {
+                                throw e;
+                            }
+                            Log.d(TAG, "falling back to on-device OCR because " + e);
+                            recognize(fallback, policy, pending, keys, verdicts, dictionary, cache);
+                        }
+                    } catch (IOException e) {
+                        // The pictures answered so far may settle the product on their own.
+                        if (!hasAnyVerdict(verdicts)) {
+                            throw e;
+                        }
+                        Log.d(TAG, pending.size() + " images left unrecognized because " + e);
+                    }
+                }
+                if (!isCancelled()) {
+                    record(verdicts, history, dictionary.getVersion());
+                }
+                deliver(() -> {
+                    long scanNanos = System.nanoTime() - mStartNanos;
+                    ScanMetrics.getInstance().record(ScanMetrics.Stage.SCAN, scanNanos);
+                    StartupWarmer.onScanResult(scanNanos);
+                    mListener.onScanResult(verdicts);
+                }, null);
+
+            } catch (HttpResponseException e) {
+                Log.d(TAG, "failed to make API request because " + e.getContent());
+                deliver(() -> mListener.onScanRecognitionError(e), null);
+            } catch (IOException e) {
+                Log.d(TAG, "failed to make API request because of other IOException " +
+                        e.getMessage());
+                deliver(() -> mListener.onScanRecognitionError(e), null);
+            } finally {
+                releaseImages();
+            }
+        }
+
+        /**
+         * Recognizes and classifies the pending images in batches, removing each batch from the
+         * list once it is done.
+         */
+        private void recognize(TextRecognizer recognizer, TextRecognizerPolicy policy,
+                               List<Integer> pending, String[] keys, VeganVerdict[] verdicts,
+                               IngredientDictionary dictionary, ScanResultCache cache) throws IOException {
+            while (!pending.isEmpty() && !isCancelled()) {
+                List<Integer> batch =
+                        pending.subList(0, Math.min(pending.size(), recognizer.getMaxBatchSize()));
+                List<EncodedImage> images = new ArrayList<>(batch.size());
+                for (int index : batch) {
+                    images.add(mImages[index]);
+                }
+                Log.d(TAG, "recognizing " + images.size() + " images with "
+                        + recognizer.getClass().getSimpleName());
+                long start = System.nanoTime();
+                List<TextRecognizer.Result> results;
+                try {
+                    results = recognizer.recognize(images);
+                } catch (IOException e) {
+                    policy.recordFailure(recognizer);
+                    throw e;
+                }
+                long elapsed = System.nanoTime() - start;
+                policy.recordLatency(recognizer, TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+                for (int j = 0; j < batch.size(); j++) {
+                    int index = batch.get(j);
+                    // The pictures of a batch share one request and its time.
+                    mStageNanos[index][VeganVerdict.Stage.RECOGNIZE.ordinal()] = elapsed;
+                    TextRecognizer.Result result = results.get(j);
+                    if (result.isFailed()) {
+                        Log.d(TAG, "failed to recognize image " + index + " because " + result.getError());
+                        continue;
+                    }
+                    verdicts[index] = classify(index, result.getText(), dictionary);
+                    if (recognizer.isCacheable()) {
+                        cache.put(keys[index], new ScanResultCache.Entry(verdicts[index], dictionary.getVersion()));
+                    }
+                }
+                batch.clear();
+            }
+        }
+
+        private boolean hasAnyVerdict(VeganVerdict[] verdicts) {
+            for (VeganVerdict verdict : verdicts) {
+                if (verdict != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Hands the verdicts of picked pictures with label text to the history, along with their
+         * thumbnails. Frames of a live scan only show parts of a label and are not kept.
+         */
+        private void record(VeganVerdict[] verdicts, ScanHistory history, int dictionaryVersion) {
+            if (mUris.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < verdicts.length; i++) {
+                if (verdicts[i] == null || !ScanHistory.hasText(verdicts[i])) {
+                    continue;
+                }
+                Bitmap thumbnail;
+                synchronized (this) {
+                    thumbnail = mThumbnails[i];
+                    mThumbnails[i] = null;
+                }
+                history.record(mBarcodes[i], verdicts[i], dictionaryVersion, thumbnail);
+            }
+        }
+
+        private VeganVerdict classify(int index, String text, IngredientDictionary dictionary) {
+            long start = System.nanoTime();
+            // No text means no keywords.
+            List<VeganVerdict.Match> matches =
+                    text != null ? dictionary.findMatches(text) : Collections.emptyList();
+            long elapsed = System.nanoTime() - start;
+            mStageNanos[index][VeganVerdict.Stage.CLASSIFY.ordinal()] = elapsed;
+            ScanMetrics.getInstance().record(ScanMetrics.Stage.CLASSIFY, elapsed);
+            return new VeganVerdict(text, matches, mStageNanos[index]);
+        }
+
+        /**
+         * Runs the delivery on the main thread unless the scan is cancelled by then, in which
+         * case the optional cleanup runs instead.
+         */
+        private void deliver(Runnable delivery, Runnable cleanup) {
+            mMainHandler.post(() -> {
+                if (!isCancelled()) {
+                    delivery.run();
+                } else if (cleanup != null) {
+                    cleanup.run();
+                }
+            });
+        }
+    }
+}
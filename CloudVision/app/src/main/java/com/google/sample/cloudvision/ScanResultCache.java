@@ -0,0 +1,261 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier cache of OCR results, keyed by the SHA-256 of the JPEG that would be uploaded.
+ *
+ * A small LRU map in memory sits in front of a directory on disk, so scanning the same label
+ * again, even after a restart, answers without a Cloud Vision round trip. Both tiers have a
+ * byte budget and evict the least recently used entries once they grow past it.
+ */
+public class ScanResultCache {
+    private static final String TAG = ScanResultCache.class.getSimpleName();
+    private static final String DIRECTORY = "scan-results";
+    private static final long MAX_MEMORY_BYTES = 256 * 1024;
+    private static final long MAX_DISK_BYTES = 2 * 1024 * 1024;
+    private static final int ENTRY_FORMAT = 3;
+
+    private static volatile ScanResultCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxMemoryBytes;
+    private final long mMaxDiskBytes;
+    // Access ordered, so iteration starts at the least recently used entry.
+    private final LinkedHashMap<String, Entry> mMemory = new LinkedHashMap<>(16, 0.75f, true);
+    private long mMemoryBytes;
+    private long mDiskBytes = -1;
+
+    private final AtomicLong mMemoryHits = new AtomicLong();
+    private final AtomicLong mDiskHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * A cached OCR result.
+     */
+    public static final class Entry {
+        private final VeganVerdict mVerdict;
+        private final int mDictionaryVersion;
+
+        /**
+         * @param verdict           the classification of the OCR text, which it carries.
+         * @param dictionaryVersion the ingredient dictionary version the verdict was found with.
+         */
+        public Entry(VeganVerdict verdict, int dictionaryVersion) {
+            mVerdict = verdict;
+            mDictionaryVersion = dictionaryVersion;
+        }
+
+        public VeganVerdict getVerdict() {
+            return mVerdict;
+        }
+
+        public int getDictionaryVersion() {
+            return mDictionaryVersion;
+        }
+
+        int sizeInBytes() {
+            return mVerdict.sizeInBytes() + 8;
+        }
+    }
+
+    public ScanResultCache(File directory, long maxMemoryBytes, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * @return the shared cache in the app's cache directory.
+     */
+    public static ScanResultCache getInstance(Context context) {
+        ScanResultCache instance = sInstance;
+        if (instance == null) {
+            synchronized (ScanResultCache.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    File directory = new File(context.getApplicationContext().getCacheDir(), DIRECTORY);
+                    instance = new ScanResultCache(directory, MAX_MEMORY_BYTES, MAX_DISK_BYTES);
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of the image bytes, used as the cache key.
+     */
+    public static String keyOf(byte[] imageBytes, int offset, int length) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(imageBytes, offset, length);
+            byte[] digest = sha256.digest();
+            return BaseEncoding.base16().lowerCase().encode(digest);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks the key up in memory, then on disk. Must not be called on the UI thread.
+     *
+     * @return the cached result or null.
+     */
+    public synchronized Entry get(String key) {
+        Entry entry = mMemory.get(key);
+        if (entry != null) {
+            mMemoryHits.incrementAndGet();
+            return entry;
+        }
+        File file = new File(mDirectory, key);
+        if (file.exists()) {
+            try {
+                entry = read(file);
+                putInMemory(key, entry);
+                // The modification time orders the disk entries for eviction.
+                file.setLastModified(System.currentTimeMillis());
+                mDiskHits.incrementAndGet();
+                return entry;
+            } catch (IOException e) {
+                Log.d(TAG, "dropping unreadable cache entry " + key + ": " + e.getMessage());
+                deleteFile(file);
+            }
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the result in memory and on disk, evicting old disk entries if needed. Must not be
+     * called on the UI thread.
+     */
+    public synchronized void put(String key, Entry entry) {
+        putInMemory(key, entry);
+        if (entry.sizeInBytes() > mMaxDiskBytes) {
+            return;
+        }
+        ensureDiskSize();
+        File file = new File(mDirectory, key);
+        deleteFile(file);
+        File temp = new File(mDirectory, key + ".tmp");
+        try {
+            write(temp, entry);
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp);
+            }
+            mDiskBytes += file.length();
+            evict();
+        } catch (IOException e) {
+            Log.d(TAG, "failed to write cache entry " + key + ": " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    public long getMemoryHits() {
+        return mMemoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return mDiskHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ScanResultCache{memoryHits=" + getMemoryHits()
+                + ", diskHits=" + getDiskHits()
+                + ", misses=" + getMisses() + "}";
+    }
+
+    private void putInMemory(String key, Entry entry) {
+        Entry previous = mMemory.put(key, entry);
+        if (previous != null) {
+            mMemoryBytes -= previous.sizeInBytes();
+        }
+        mMemoryBytes += entry.sizeInBytes();
+        Iterator<Entry> eldest = mMemory.values().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes && eldest.hasNext()) {
+            mMemoryBytes -= eldest.next().sizeInBytes();
+            eldest.remove();
+        }
+    }
+
+    private void ensureDiskSize() {
+        if (mDiskBytes >= 0) {
+            return;
+        }
+        mDirectory.mkdirs();
+        mDiskBytes = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                mDiskBytes += file.length();
+            }
+        }
+    }
+
+    private void evict() {
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && mDiskBytes > mMaxDiskBytes; i++) {
+            deleteFile(files[i]);
+        }
+    }
+
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete() && mDiskBytes >= 0) {
+            mDiskBytes -= length;
+        }
+    }
+
+    private static Entry read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != ENTRY_FORMAT) {
+                throw new IOException("unknown entry format");
+            }
+            int dictionaryVersion = in.readInt();
+            return new Entry(VeganVerdict.readFrom(in), dictionaryVersion);
+        }
+    }
+
+    private static void write(File file, Entry entry) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(ENTRY_FORMAT);
+            out.writeInt(entry.getDictionaryVersion());
+            entry.getVerdict().writeTo(out);
+        }
+    }
+}
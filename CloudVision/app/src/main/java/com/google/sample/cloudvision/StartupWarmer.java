@@ -0,0 +1,121 @@
+package com.google.sample.cloudvision;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Does the one-time work of the first scan in the background right after the app shows its
+ * first frame, instead of after the user picked a picture: loading the Google API client and
+ * Gson classes, building the HTTP transport and hashing the signing certificate in
+ * {@link VisionClientProvider}, mapping the ingredient dictionary, opening the scan history,
+ * installing the on-device OCR model in builds that bundle it and building the barcode detector.
+ * A scan that starts before a step is done waits for that step in the same {@code getInstance}
+ * call instead of doing it again.
+ *
+ * Warmup can be turned off to measure its effect by starting the app with
+ * {@code adb shell am start -n com.google.sample.cloudvision/.MainActivity --ez com.google.sample.cloudvision.WARMUP false}.
+ * Either way, the first scan of the process is recorded as {@link ScanMetrics.Stage#FIRST_SCAN}
+ * and logged with the time since the process started. Debug builds started with
+ * {@link #EXTRA_SCAN} scan that picture {@link #EXTRA_SCAN_DELAY_MS} after starting, in place
+ * of the user picking it; {@code scripts/measure-first-scan.sh} times cold starts that way.
+ */
+public final class StartupWarmer {
+    static final String EXTRA_WARMUP = "com.google.sample.cloudvision.WARMUP";
+    /** The URI of a picture to scan right after starting, only read by debug builds. */
+    static final String EXTRA_SCAN = "com.google.sample.cloudvision.SCAN";
+    /** How long to wait before the {@link #EXTRA_SCAN} picture is scanned, in milliseconds. */
+    static final String EXTRA_SCAN_DELAY_MS = "com.google.sample.cloudvision.SCAN_DELAY_MS";
+
+    private static final String TAG = StartupWarmer.class.getSimpleName();
+    // Parsed once so that the streaming JSON reader is loaded before the first response.
+    private static final String SAMPLE_RESPONSE =
+            "{\"responses\":[{\"textAnnotations\":[{\"description\":\"원재료명: 밀가루, 우유\"}]}]}";
+
+    private static final AtomicBoolean sStarted = new AtomicBoolean();
+    private static final AtomicBoolean sFirstResult = new AtomicBoolean();
+
+    private StartupWarmer() {
+    }
+
+    /**
+     * Starts warming up once the activity has drawn its first frame, unless it was started
+     * with {@link #EXTRA_WARMUP} false. Only the first call of the process does anything.
+     */
+    public static void warmUpAfterFirstFrame(Activity activity) {
+        if (!activity.getIntent().getBooleanExtra(EXTRA_WARMUP, true)) {
+            Log.d(TAG, "warmup disabled");
+            return;
+        }
+        if (!sStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Context context = activity.getApplicationContext();
+        View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted before the frame is drawn, so it runs after it.
+                decor.post(() -> ScanPipeline.newExecutor("warmup", 1, 1).execute(() -> warmUp(context)));
+                return true;
+            }
+        });
+    }
+
+    private static void warmUp(Context context) {
+        long start = System.nanoTime();
+        step("vision client", start, () -> VisionClientProvider.getInstance(context));
+        step("response parser", start, () -> AnnotateResponseParser.parse(new StringReader(SAMPLE_RESPONSE)));
+        step("dictionary", start, () -> IngredientDictionary.getInstance(context).findMatches("밀가루, 우유"));
+        step("cache", start, () -> ScanResultCache.getInstance(context));
+        step("history", start, () -> ScanHistory.getInstance(context).getReadableDatabase());
+        step("recognizer policy", start, () -> TextRecognizerPolicy.getInstance(context));
+        if (BuildConfig.ON_DEVICE_OCR) {
+            step("on-device OCR", start, () -> TesseractRecognizer.getInstance(context));
+        }
+        step("barcode reader", start, () -> BarcodeReader.getInstance(context));
+        Log.d(TAG, "warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    private static void step(String name, long start, Step step) {
+        long stepStart = System.nanoTime();
+        try {
+            step.run();
+        } catch (IOException | RuntimeException e) {
+            // The scan that needs it will run into the same problem and report it.
+            Log.d(TAG, "cannot warm up the " + name + " because " + e);
+        }
+        long end = System.nanoTime();
+        Log.d(TAG, name + " took " + TimeUnit.NANOSECONDS.toMillis(end - stepStart) + " ms, done "
+                + TimeUnit.NANOSECONDS.toMillis(end - start) + " ms after warmup started");
+    }
+
+    /**
+     * Records the first scan result of the process. Called on the main thread with every result.
+     *
+     * @param scanNanos how long the scan took.
+     */
+    static void onScanResult(long scanNanos) {
+        if (!sFirstResult.compareAndSet(false, true)) {
+            return;
+        }
+        ScanMetrics.getInstance().record(ScanMetrics.Stage.FIRST_SCAN, scanNanos);
+        Log.d(TAG, "first scan took " + TimeUnit.NANOSECONDS.toMillis(scanNanos) + " ms, result "
+                + (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime())
+                + " ms after the process started, warmup " + (sStarted.get() ? "on" : "off"));
+    }
+
+    private interface Step {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.sample.cloudvision;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Reads the text printed on the pictured labels, either remotely or on the device.
+ *
+ * {@link TextRecognizerPolicy} decides which implementation serves a scan.
+ */
+public interface TextRecognizer {
+    /**
+     * @return the most images a single {@link #recognize} call should be given.
+     */
+    int getMaxBatchSize();
+
+    /**
+     * @return whether the text is good enough to keep in the {@link ScanResultCache}. Results
+     * that are not cached are recognized again by the next scan of the same picture.
+     */
+    boolean isCacheable();
+
+    /**
+     * Recognizes the text of every image.
+     *
+     * @return one result per image, in the order of the images.
+     * @throws IOException if none of the images could be recognized.
+     */
+    List<Result> recognize(List<EncodedImage> images) throws IOException;
+
+    /**
+     * The text of one image, or why it could not be recognized.
+     */
+    final class Result {
+        private final String mText;
+        private final String mError;
+
+        private Result(String text, String error) {
+            mText = text;
+            mError = error;
+        }
+
+        /**
+         * @param text the full text of the image, null if it contains none.
+         */
+        public static Result text(String text) {
+            return new Result(text, null);
+        }
+
+        public static Result failed(String error) {
+            return new Result(null, error);
+        }
+
+        public boolean isFailed() {
+            return mError != null;
+        }
+
+        /**
+         * @return the full text of the image, null if it contains none or recognition failed.
+         */
+        public String getText() {
+            return mText;
+        }
+
+        public String getError() {
+            return mError;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Chooses the {@link TextRecognizer} of a scan from the network state and how long Cloud Vision
+ * has recently taken to answer.
+ *
+ * Cloud Vision reads labels best, so it is used whenever its answer is expected within
+ * {@link #LATENCY_BUDGET_MS}. Without a validated network, or when uploading the images over the
+ * current link or the recent round trips would take longer than that, the on-device recognizer
+ * answers instead, provided its model is installed. It is also the fallback when a Cloud Vision
+ * call fails.
+ */
+public class TextRecognizerPolicy {
+    /** How long a scan may wait for the recognized text before on-device OCR is preferred. */
+    static final long LATENCY_BUDGET_MS = 3000;
+
+    private static final String TAG = TextRecognizerPolicy.class.getSimpleName();
+    // Weight of the newest round trip in the running latency estimate.
+    private static final float LATENCY_SMOOTHING = 0.3f;
+    // An estimate this old says little about the current link, so Cloud Vision is tried again.
+    private static final long LATENCY_MAX_AGE_MS = 5 * 60 * 1000;
+
+    private static volatile TextRecognizerPolicy sInstance;
+
+    private final Context mContext;
+    private final ConnectivityManager mConnectivity;
+    private final CloudVisionRecognizer mCloud;
+    private long mCloudLatencyMs = -1;
+    private long mCloudLatencyUpdated;
+
+    private TextRecognizerPolicy(Context context) {
+        mContext = context;
+        mConnectivity = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mCloud = new CloudVisionRecognizer(context);
+    }
+
+    public static TextRecognizerPolicy getInstance(Context context) {
+        TextRecognizerPolicy instance = sInstance;
+        if (instance == null) {
+            synchronized (TextRecognizerPolicy.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new TextRecognizerPolicy(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @param payloadBytes the size of the images to recognize.
+     * @return the recognizer expected to answer first with usable text. May install the
+     * on-device model, so it should not be called on the UI thread.
+     */
+    public TextRecognizer choose(long payloadBytes) {
+        TesseractRecognizer local = TesseractRecognizer.getInstance(mContext);
+        if (!local.isAvailable()) {
+            return mCloud;
+        }
+        Network network = mConnectivity.getActiveNetwork();
+        NetworkCapabilities capabilities =
+                network != null ? mConnectivity.getNetworkCapabilities(network) : null;
+        if (capabilities == null
+                || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED)) {
+            Log.d(TAG, "offline, recognizing on the device");
+            return local;
+        }
+        long expectedMs = estimateCloudLatency(payloadBytes, capabilities.getLinkUpstreamBandwidthKbps());
+        if (expectedMs > LATENCY_BUDGET_MS) {
+            Log.d(TAG, "Cloud Vision expected to take " + expectedMs + " ms, recognizing on the device");
+            return local;
+        }
+        return mCloud;
+    }
+
+    /**
+     * @return the recognizer to retry with after the given one failed, or null if there is none.
+     */
+    public TextRecognizer getFallback(TextRecognizer failed) {
+        TesseractRecognizer local = TesseractRecognizer.getInstance(mContext);
+        return failed != local && local.isAvailable() ? local : null;
+    }
+
+    /**
+     * Records how long a successful {@link TextRecognizer#recognize} call took.
+     */
+    public synchronized void recordLatency(TextRecognizer recognizer, long elapsedMs) {
+        if (recognizer != mCloud) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mCloudLatencyMs < 0 || now - mCloudLatencyUpdated > LATENCY_MAX_AGE_MS) {
+            mCloudLatencyMs = elapsedMs;
+        } else {
+            mCloudLatencyMs += (long) (LATENCY_SMOOTHING * (elapsedMs - mCloudLatencyMs));
+        }
+        mCloudLatencyUpdated = now;
+    }
+
+    /**
+     * Records a failed {@link TextRecognizer#recognize} call, so the next scans do not wait on a
+     * link that just broke down.
+     */
+    public synchronized void recordFailure(TextRecognizer recognizer) {
+        if (recognizer == mCloud) {
+            mCloudLatencyMs = Math.max(mCloudLatencyMs, 2 * LATENCY_BUDGET_MS);
+            mCloudLatencyUpdated = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private synchronized long estimateCloudLatency(long payloadBytes, int upstreamKbps) {
+        // Bits over kilobits per second are milliseconds.
+        long uploadMs = upstreamKbps > 0 ? payloadBytes * 8 / upstreamKbps : 0;
+        boolean recent = mCloudLatencyMs >= 0
+                && SystemClock.elapsedRealtime() - mCloudLatencyUpdated <= LATENCY_MAX_AGE_MS;
+        return Math.max(uploadMs, recent ? mCloudLatencyMs : 0);
+    }
+}
@@ -0,0 +1,104 @@
+package com.google.sample.cloudvision;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines the verdicts of the frames of a live scan into one verdict of the product.
+ *
+ * While the camera pans over a label every frame shows another part of it, so the product has
+ * every ingredient any frame found, and its level is the strictest of them. The level therefore
+ * only ever gets stricter as frames come in and does not flicker between frames. An ingredient
+ * found exactly counts right away; one only found approximately, which a single misread can
+ * produce, counts once {@link #CONFIRMATIONS} frames have found it.
+ */
+final class VerdictStabilizer {
+    /** Frames that must find an approximate match before it counts. */
+    static final int CONFIRMATIONS = 2;
+
+    // Keyword to how it was found, in the order the ingredients were first seen.
+    private final Map<String, Evidence> mEvidence = new LinkedHashMap<>();
+    private int mFrames;
+
+    /**
+     * Adds the verdict of a frame that was recognized.
+     */
+    void add(VeganVerdict verdict) {
+        mFrames++;
+        // A keyword found several times in one frame is still one sighting.
+        Map<String, VeganVerdict.Match> frameMatches = new LinkedHashMap<>();
+        for (VeganVerdict.Match match : verdict.getMatches()) {
+            VeganVerdict.Match previous = frameMatches.get(match.getKeyword());
+            if (previous == null || previous.isApproximate()) {
+                frameMatches.put(match.getKeyword(), match);
+            }
+        }
+        for (VeganVerdict.Match match : frameMatches.values()) {
+            Evidence evidence = mEvidence.get(match.getKeyword());
+            if (evidence == null) {
+                evidence = new Evidence(match.getLevel());
+                mEvidence.put(match.getKeyword(), evidence);
+            }
+            evidence.mFrames++;
+            evidence.mExact |= !match.isApproximate();
+        }
+    }
+
+    /**
+     * @return how many frames were added since the start or the last reset.
+     */
+    int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * @return the strictest level of the confirmed ingredients, null before the first frame.
+     */
+    VeganLevel getLevel() {
+        if (mFrames == 0) {
+            return null;
+        }
+        VeganLevel level = VeganLevel.VEGAN;
+        for (Evidence evidence : mEvidence.values()) {
+            if (evidence.isConfirmed()) {
+                level = VeganLevel.strictest(level, evidence.mLevel);
+            }
+        }
+        return level;
+    }
+
+    /**
+     * @return the confirmed ingredients, in the order they were first seen.
+     */
+    List<String> getIngredients() {
+        List<String> ingredients = new ArrayList<>();
+        for (Map.Entry<String, Evidence> entry : mEvidence.entrySet()) {
+            if (entry.getValue().isConfirmed()) {
+                ingredients.add(entry.getKey());
+            }
+        }
+        return Collections.unmodifiableList(ingredients);
+    }
+
+    void reset() {
+        mEvidence.clear();
+        mFrames = 0;
+    }
+
+    private static final class Evidence {
+        final VeganLevel mLevel;
+        int mFrames;
+        boolean mExact;
+
+        Evidence(VeganLevel level) {
+            mLevel = level;
+        }
+
+        boolean isConfirmed() {
+            return mExact || mFrames >= CONFIRMATIONS;
+        }
+    }
+}
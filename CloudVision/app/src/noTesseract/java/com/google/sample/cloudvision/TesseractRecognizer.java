@@ -0,0 +1,44 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Takes the place of the Tesseract recognizer in builds without its Korean model, which leave
+ * Tesseract and its native libraries out. It is never available, so every scan goes to Cloud
+ * Vision.
+ */
+public class TesseractRecognizer implements TextRecognizer {
+    private static final TesseractRecognizer sInstance = new TesseractRecognizer();
+
+    private TesseractRecognizer() {
+    }
+
+    public static TesseractRecognizer getInstance(Context context) {
+        return sInstance;
+    }
+
+    /**
+     * @return false, this build has no on-device OCR.
+     */
+    public boolean isAvailable() {
+        return false;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return false;
+    }
+
+    @Override
+    public List<Result> recognize(List<EncodedImage> images) throws IOException {
+        throw new IOException("this build has no on-device OCR");
+    }
+}
@@ -0,0 +1,136 @@
+package com.google.sample.cloudvision;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.googlecode.tesseract.android.TessBaseAPI;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recognizes Korean text on the device with Tesseract, for scans without a usable network.
+ *
+ * Tesseract reads its model from a file, so the {@code kor.traineddata} asset is copied to
+ * internal storage the first time the recognizer is needed. This class is only built when the
+ * model is bundled; other builds get a stand-in that is never available.
+ * {@link #isAvailable()} still tells whether the copy succeeded.
+ */
+public class TesseractRecognizer implements TextRecognizer {
+    private static final String TAG = TesseractRecognizer.class.getSimpleName();
+    private static final String LANGUAGE = "kor";
+    private static final String TRAINED_DATA_ASSET = "tessdata/" + LANGUAGE + ".traineddata";
+    private static final String DATA_DIR = "tesseract";
+
+    private static volatile TesseractRecognizer sInstance;
+
+    private final File mDataDir;
+    private final boolean mAvailable;
+    private TessBaseAPI mApi;
+
+    private TesseractRecognizer(Context context) {
+        mDataDir = new File(context.getFilesDir(), DATA_DIR);
+        mAvailable = installTrainedData(context, new File(mDataDir, TRAINED_DATA_ASSET));
+    }
+
+    /**
+     * @return the shared recognizer. The first call may copy the model to storage, so it should
+     * not happen on the UI thread.
+     */
+    public static TesseractRecognizer getInstance(Context context) {
+        TesseractRecognizer instance = sInstance;
+        if (instance == null) {
+            synchronized (TesseractRecognizer.class) {
+                instance = sInstance;
+                if (instance == null) {
+                    instance = new TesseractRecognizer(context.getApplicationContext());
+                    sInstance = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return whether the Korean model is installed.
+     */
+    public boolean isAvailable() {
+        return mAvailable;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        // Images are recognized one after the other anyway.
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isCacheable() {
+        // Tesseract misreads more than Cloud Vision, the next online scan should replace it.
+        return false;
+    }
+
+    @Override
+    public synchronized List<Result> recognize(List<EncodedImage> images) throws IOException {
+        if (!mAvailable) {
+            throw new IOException("no " + LANGUAGE + " model for Tesseract");
+        }
+        if (mApi == null) {
+            TessBaseAPI api = new TessBaseAPI();
+            if (!api.init(mDataDir.getAbsolutePath(), LANGUAGE)) {
+                throw new IOException("cannot initialize Tesseract from " + mDataDir);
+            }
+            mApi = api;
+        }
+
+        List<Result> results = new ArrayList<>(images.size());
+        for (EncodedImage image : images) {
+            Bitmap bitmap = image.decode();
+            if (bitmap == null) {
+                results.add(Result.failed("cannot decode image"));
+                continue;
+            }
+            try {
+                long start = System.nanoTime();
+                mApi.setImage(bitmap);
+                String text = mApi.getUTF8Text();
+                ScanMetrics.getInstance().record(ScanMetrics.Stage.ON_DEVICE_OCR, System.nanoTime() - start);
+                results.add(Result.text(text == null || text.trim().isEmpty() ? null : text));
+            } finally {
+                mApi.clear();
+                bitmap.recycle();
+            }
+        }
+        return results;
+    }
+
+    private static boolean installTrainedData(Context context, File target) {
+        if (target.isFile()) {
+            return true;
+        }
+        File partial = new File(target.getPath() + ".tmp");
+        if (!target.getParentFile().mkdirs() && !target.getParentFile().isDirectory()) {
+            Log.d(TAG, "cannot create " + target.getParent());
+            return false;
+        }
+        try (InputStream in = context.getAssets().open(TRAINED_DATA_ASSET);
+             OutputStream out = new FileOutputStream(partial)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "on-device OCR unavailable: " + e.getMessage());
+            partial.delete();
+            return false;
+        }
+        return partial.renameTo(target);
+    }
+}
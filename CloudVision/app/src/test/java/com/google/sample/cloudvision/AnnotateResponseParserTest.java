@@ -0,0 +1,137 @@
+package com.google.sample.cloudvision;
+
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.services.vision.v1.model.BatchAnnotateImagesResponse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the parser against the client library's model on a text-dense response, with and
+ * without the field mask the app sends.
+ *
+ * The responses are synthetic: a label of {@link #WORDS} words with a bounding polygon per word
+ * in the text annotations and per word and symbol in the full text annotation, like Vision
+ * returns them.
+ */
+public class AnnotateResponseParserTest {
+    private static final int WORDS = 600;
+    private static final String SYLLABLES = "원재료명및함량정제수밀가루설탕대두유식물성크림야자유효모탈지분유난백분";
+
+    @Test
+    public void readsTheFullTextLikeTheModel() throws IOException {
+        String[] words = words();
+        String full = response(words, false);
+        String expected = GsonFactory.getDefaultInstance().createJsonParser(full)
+                .parse(BatchAnnotateImagesResponse.class).getResponses().get(0)
+                .getTextAnnotations().get(0).getDescription();
+
+        assertEquals(expected, parse(full).get(0).getText());
+        assertEquals(expected, parse(response(words, true)).get(0).getText());
+    }
+
+    @Test
+    public void keepsTheOrderOfTheImages() throws IOException {
+        List<TextRecognizer.Result> results = parse("{\"responses\":["
+                + "{\"textAnnotations\":[{\"description\":\"우유\"},{\"description\":\"우유\"}]},"
+                + "{\"error\":{\"code\":3,\"message\":\"Bad image data.\"}},"
+                + "{},"
+                + "{\"textAnnotations\":[]}]}");
+
+        assertEquals(4, results.size());
+        assertEquals("우유", results.get(0).getText());
+        assertTrue(results.get(1).isFailed());
+        assertEquals("Bad image data.", results.get(1).getError());
+        assertFalse(results.get(2).isFailed());
+        assertNull(results.get(2).getText());
+        assertNull(results.get(3).getText());
+    }
+
+    @Test
+    public void namesTheCodeOfAnErrorWithoutMessage() throws IOException {
+        assertEquals("error 7", parse("{\"responses\":[{\"error\":{\"code\":7}}]}").get(0).getError());
+    }
+
+    @Test
+    public void skipsUnknownFields() throws IOException {
+        List<TextRecognizer.Result> results = parse("{\"extra\":{\"a\":[1,2]},\"responses\":[{"
+                + "\"labelAnnotations\":[{\"description\":\"food\"}],"
+                + "\"textAnnotations\":[{\"locale\":\"ko\",\"description\":\"설탕\",\"score\":0.9}]}]}");
+
+        assertEquals(1, results.size());
+        assertEquals("설탕", results.get(0).getText());
+    }
+
+    private static List<TextRecognizer.Result> parse(String json) throws IOException {
+        return AnnotateResponseParser.parse(new StringReader(json));
+    }
+
+    private static String[] words() {
+        Random random = new Random(42);
+        String[] words = new String[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int j = 2 + random.nextInt(4); j > 0; j--) {
+                word.append(SYLLABLES.charAt(random.nextInt(SYLLABLES.length())));
+            }
+            words[i] = word.toString();
+        }
+        return words;
+    }
+
+    private static String response(String[] words, boolean masked) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            text.append(words[i]).append(i % 8 == 7 ? "\\n" : ", ");
+        }
+        StringBuilder json = new StringBuilder("{\"responses\":[{\"textAnnotations\":[{");
+        if (!masked) {
+            json.append("\"locale\":\"ko\",");
+        }
+        json.append("\"description\":\"").append(text).append('"');
+        if (!masked) {
+            json.append(",\"boundingPoly\":").append(polygon(0));
+        }
+        json.append('}');
+        for (int i = 0; i < words.length; i++) {
+            json.append(",{\"description\":\"").append(words[i]).append('"');
+            if (!masked) {
+                json.append(",\"boundingPoly\":").append(polygon(i));
+            }
+            json.append('}');
+        }
+        json.append(']');
+        if (!masked) {
+            json.append(",\"fullTextAnnotation\":{\"pages\":[{\"width\":1200,\"height\":900,\"blocks\":[{")
+                    .append("\"boundingBox\":").append(polygon(0)).append(",\"paragraphs\":[{")
+                    .append("\"boundingBox\":").append(polygon(0)).append(",\"words\":[");
+            for (int i = 0; i < words.length; i++) {
+                json.append(i > 0 ? "," : "").append("{\"boundingBox\":").append(polygon(i))
+                        .append(",\"symbols\":[");
+                for (int j = 0; j < words[i].length(); j++) {
+                    json.append(j > 0 ? "," : "").append("{\"boundingBox\":").append(polygon(i + j))
+                            .append(",\"text\":\"").append(words[i].charAt(j)).append("\"}");
+                }
+                json.append("]}");
+            }
+            json.append("]}],\"blockType\":\"TEXT\"}]}],\"text\":\"").append(text).append("\"}");
+        }
+        return json.append("}]}").toString();
+    }
+
+    private static String polygon(int i) {
+        int x = i % 40 * 30;
+        int y = i / 40 * 40;
+        return "{\"vertices\":[{\"x\":" + x + ",\"y\":" + y + "},{\"x\":" + (x + 28) + ",\"y\":" + y
+                + "},{\"x\":" + (x + 28) + ",\"y\":" + (y + 36) + "},{\"x\":" + x + ",\"y\":" + (y + 36) + "}]}";
+    }
+}
@@ -0,0 +1,201 @@
+package com.google.sample.cloudvision;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares upload sizes and JPEG qualities on a folder of label photos: the average payload,
+ * how many of the ingredient keywords OCR still finds, and whether the verdict stays the same.
+ *
+ * Every photo is sent once per setting of a fixed ladder, once with the settings
+ * {@link AdaptiveEncodingPolicy} picks and once the way the app used to (1200 px, quality 90).
+ * Recall is measured against all keywords found in the photo by any setting. This makes real
+ * Cloud Vision calls, so it needs an API key and costs quota.
+ *
+ * The verdicts and keywords come from the app's {@link VeganClassifier} with the shipped keyword
+ * lists. It only runs when given the image folder and the API key, otherwise it is skipped:
+ * {@code ./gradlew :app:testDebugUnitTest --tests '*EncodingBenchmark' -Pencoding.images=<folder>
+ * -Pencoding.apiKey=<key>}.
+ */
+public class EncodingBenchmark {
+    private static final String ANNOTATE_URL = "https://vision.googleapis.com/v1/images:annotate?key=";
+    private static final int[] DIMENSIONS = {640, 800, 1024, 1200, 1600};
+    private static final int[] QUALITIES = {60, 75, 90};
+    private static final String BASELINE = "1200px q90";
+    private static final String ADAPTIVE = "adaptive";
+
+    private static final File SOURCES = new File("src/main/dictionary");
+
+    @Test
+    public void compareSettings() throws IOException {
+        String images = System.getProperty("encoding.images");
+        String apiKey = System.getProperty("encoding.apiKey");
+        assumeTrue("needs -Pencoding.images and -Pencoding.apiKey", images != null && apiKey != null);
+        File[] files = new File(images).listFiles((dir, name) -> name.matches("(?i).*\\.(jpe?g|png)"));
+        assertTrue("no pictures in " + images, files != null && files.length > 0);
+        VeganClassifier classifier = new VeganClassifier(IngredientSources.read(SOURCES, 1).compile());
+
+        Map<String, Stats> stats = new LinkedHashMap<>();
+        for (File file : files) {
+            BufferedImage source = ImageIO.read(file);
+            if (source == null) {
+                continue;
+            }
+            Map<String, EncodingSettings> settings = new LinkedHashMap<>();
+            for (int dimension : DIMENSIONS) {
+                for (int quality : QUALITIES) {
+                    settings.put(dimension + "px q" + quality, EncodingSettings.uncropped(
+                            source.getWidth(), source.getHeight(), dimension, quality));
+                }
+            }
+            settings.put(ADAPTIVE, analyze(source));
+
+            Map<String, Set<String>> found = new LinkedHashMap<>();
+            Map<String, VeganLevel> levels = new LinkedHashMap<>();
+            Set<String> all = new HashSet<>();
+            for (Map.Entry<String, EncodingSettings> setting : settings.entrySet()) {
+                byte[] jpeg = encode(source, setting.getValue());
+                String text = recognize(jpeg, apiKey);
+                Set<String> matches = new HashSet<>();
+                levels.put(setting.getKey(), classify(classifier, text, matches));
+                found.put(setting.getKey(), matches);
+                all.addAll(matches);
+                stats.computeIfAbsent(setting.getKey(), key -> new Stats()).bytes += jpeg.length;
+            }
+            System.out.println(file.getName() + ": " + settings.get(ADAPTIVE)
+                    + ", " + all.size() + " keywords, baseline " + levels.get(BASELINE));
+            for (String setting : settings.keySet()) {
+                Stats s = stats.get(setting);
+                s.images++;
+                s.found += found.get(setting).size();
+                s.expected += all.size();
+                if (levels.get(setting) == levels.get(BASELINE)) {
+                    s.agreeing++;
+                }
+            }
+        }
+
+        System.out.printf("%-12s %10s %8s %10s%n", "setting", "avg bytes", "recall", "verdict");
+        for (Map.Entry<String, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            System.out.printf("%-12s %10d %7.1f%% %9.1f%%%n", entry.getKey(), s.bytes / s.images,
+                    s.expected == 0 ? 100.0 : 100.0 * s.found / s.expected,
+                    100.0 * s.agreeing / s.images);
+        }
+    }
+
+    private static EncodingSettings analyze(BufferedImage source) {
+        float scale = (float) AdaptiveEncodingPolicy.ANALYSIS_DIMENSION
+                / Math.max(source.getWidth(), source.getHeight());
+        int width = Math.max(1, Math.round(source.getWidth() * Math.min(1, scale)));
+        int height = Math.max(1, Math.round(source.getHeight() * Math.min(1, scale)));
+        BufferedImage thumbnail = resize(source, width, height);
+        int[] argb = thumbnail.getRGB(0, 0, width, height, null, 0, width);
+        return AdaptiveEncodingPolicy.choose(argb, width, height, source.getWidth(), source.getHeight());
+    }
+
+    private static byte[] encode(BufferedImage source, EncodingSettings settings) throws IOException {
+        BufferedImage crop = source.getSubimage(settings.getLeft(), settings.getTop(),
+                settings.getCropWidth(), settings.getCropHeight());
+        BufferedImage scaled = resize(crop, settings.getTargetWidth(), settings.getTargetHeight());
+
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(settings.getQuality() / 100f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(scaled, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage resize(BufferedImage source, int width, int height) {
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(source, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaled;
+    }
+
+    private static String recognize(byte[] jpeg, String apiKey) throws IOException {
+        String body = "{\"requests\":[{\"image\":{\"content\":\"" + Base64.getEncoder().encodeToString(jpeg)
+                + "\"},\"features\":[{\"type\":\"TEXT_DETECTION\",\"maxResults\":10}]}]}";
+        HttpURLConnection connection = (HttpURLConnection) new URL(ANNOTATE_URL + apiKey).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("annotate failed: " + connection.getResponseCode());
+        }
+        try (Reader in = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+            JsonObject response = new JsonParser().parse(in).getAsJsonObject()
+                    .getAsJsonArray("responses").get(0).getAsJsonObject();
+            JsonArray annotations = response.getAsJsonArray("textAnnotations");
+            if (annotations == null || annotations.size() == 0) {
+                return null;
+            }
+            return annotations.get(0).getAsJsonObject().get("description").getAsString();
+        }
+    }
+
+    /**
+     * Classifies the text like the app does and collects every keyword it sees.
+     */
+    private static VeganLevel classify(VeganClassifier classifier, String text, Set<String> found) {
+        VeganLevel level = VeganLevel.VEGAN;
+        if (text == null) {
+            return level;
+        }
+        for (VeganVerdict.Match match : classifier.findMatches(text)) {
+            found.add(match.getKeyword());
+            level = VeganLevel.strictest(level, match.getLevel());
+        }
+        return level;
+    }
+
+    private static class Stats {
+        long bytes;
+        int images;
+        long found;
+        long expected;
+        int agreeing;
+    }
+}
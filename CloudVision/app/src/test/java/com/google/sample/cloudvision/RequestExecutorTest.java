@@ -0,0 +1,159 @@
+package com.google.sample.cloudvision;
+
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.javanet.NetHttpTransport;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the executor against a local server that fails, drops or stalls chosen requests.
+ */
+public class RequestExecutorTest {
+    private static final int MAX_ATTEMPTS = 3;
+    // Stalled requests wait for this long, far longer than a hedge takes.
+    private static final long STALL_MS = 10_000;
+
+    private final HttpRequestFactory mRequests = new NetHttpTransport().createRequestFactory(request -> {
+        request.setNumberOfRetries(0);
+        request.setReadTimeout((int) (2 * STALL_MS));
+    });
+    private final RequestExecutor mExecutor = new RequestExecutor(MAX_ATTEMPTS, 10, 40, 5_000, true, 4);
+    private final AtomicInteger mClosed = new AtomicInteger();
+    private StandInServer mServer;
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.close();
+        }
+    }
+
+    @Test
+    public void retriesTransientFailures() throws Exception {
+        mServer = new StandInServer((exchange, request) ->
+                StandInServer.respond(exchange, request < 3 ? 503 : 200, "ok " + request));
+
+        assertEquals("ok 3", get("a"));
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retriesDroppedConnections() throws Exception {
+        mServer = new StandInServer((exchange, request) -> {
+            if (request > 1) {
+                StandInServer.respond(exchange, 200, "ok " + request);
+            }
+            // The first exchange is closed without an answer.
+        });
+
+        assertEquals("ok 2", get("a"));
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryRejectedRequests() throws Exception {
+        mServer = new StandInServer((exchange, request) -> StandInServer.respond(exchange, 400, "bad"));
+
+        assertEquals(400, getFailure("a").getStatusCode());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterTheLastAttempt() throws Exception {
+        mServer = new StandInServer((exchange, request) -> StandInServer.respond(exchange, 503, "busy"));
+
+        assertEquals(503, getFailure("a").getStatusCode());
+        assertEquals(MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgesAnAttemptSlowerThanThePercentile() throws Exception {
+        int samples = 20;
+        mServer = new StandInServer((exchange, request) -> {
+            if (request == samples + 1) {
+                Thread.sleep(STALL_MS);
+            }
+            StandInServer.respond(exchange, 200, "ok " + request);
+        });
+        for (int i = 0; i < samples; i++) {
+            get("sample " + i);
+        }
+        // Without enough samples nothing is hedged.
+        assertEquals(samples, mServer.getRequestCount());
+
+        long start = System.nanoTime();
+        String result = get("slow");
+
+        assertEquals("ok " + (samples + 2), result);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < STALL_MS / 2);
+        assertTrue(mExecutor.getHedgeDelayMs() >= 0);
+    }
+
+    @Test
+    public void sharesACallInFlightWithTheSameKey() throws Exception {
+        CountDownLatch answer = new CountDownLatch(1);
+        mServer = new StandInServer((exchange, request) -> {
+            answer.await();
+            StandInServer.respond(exchange, 200, "ok " + request);
+        });
+
+        CompletableFuture<String> first = mExecutor.submit("a", newCall());
+        CompletableFuture<String> second = mExecutor.submit("a", newCall());
+        // The duplicate call is released right away.
+        assertEquals(1, mClosed.get());
+        answer.countDown();
+
+        assertSame(first, second);
+        assertEquals("ok 1", first.get(5, TimeUnit.SECONDS));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    private String get(String key) throws Exception {
+        return mExecutor.submit(key, newCall()).get(5, TimeUnit.SECONDS);
+    }
+
+    private HttpResponseException getFailure(String key) throws Exception {
+        try {
+            get(key);
+            fail("the call succeeded");
+            return null;
+        } catch (ExecutionException e) {
+            return (HttpResponseException) e.getCause();
+        }
+    }
+
+    private RequestExecutor.Call<String> newCall() {
+        return new RequestExecutor.Call<String>() {
+            @Override
+            public String attempt() throws IOException {
+                HttpResponse response = mRequests.buildGetRequest(new GenericUrl(mServer.getRootUrl())).execute();
+                try {
+                    return response.parseAsString();
+                } finally {
+                    response.disconnect();
+                }
+            }
+
+            @Override
+            public void close() {
+                mClosed.incrementAndGet();
+            }
+        };
+    }
+}
@@ -0,0 +1,111 @@
+package com.google.sample.cloudvision;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local HTTP server standing in for Cloud Vision in the JVM tests. Every request goes to the
+ * {@link Handler} with its number, so a test can answer, fail or stall any one of them.
+ */
+final class StandInServer implements AutoCloseable {
+    /**
+     * Answers one request.
+     */
+    interface Handler {
+        /**
+         * @param request the number of the request, starting at 1.
+         */
+        void handle(HttpExchange exchange, int request) throws IOException, InterruptedException;
+    }
+
+    static final String TEXT = "원재료명: 밀가루, 우유";
+    static final String RESPONSE =
+            "{\"responses\":[{\"textAnnotations\":[{\"description\":\"" + TEXT + "\"}]}]}";
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final List<HttpExchange> mExchanges = new CopyOnWriteArrayList<>();
+
+    StandInServer(Handler handler) throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", exchange -> {
+            int request = mRequests.incrementAndGet();
+            mExchanges.add(exchange);
+            try (InputStream in = exchange.getRequestBody()) {
+                // The whole body has to be read for the connection to be reused.
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // Discarded.
+                }
+                handler.handle(exchange, request);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        // Stalled requests must not hold up the others.
+        mServer.setExecutor(mExecutor);
+        mServer.start();
+    }
+
+    /**
+     * @return the URL to use in place of {@code https://vision.googleapis.com/}.
+     */
+    String getRootUrl() {
+        return "http://" + mServer.getAddress().getHostString() + ":" + mServer.getAddress().getPort() + "/";
+    }
+
+    int getRequestCount() {
+        return mRequests.get();
+    }
+
+    /**
+     * @return the requests received so far, in order.
+     */
+    List<HttpExchange> getExchanges() {
+        return Collections.unmodifiableList(mExchanges);
+    }
+
+    /**
+     * @return how many connections the requests so far came over.
+     */
+    int getConnectionCount() {
+        Set<Integer> ports = new HashSet<>();
+        for (HttpExchange exchange : mExchanges) {
+            ports.add(exchange.getRemoteAddress().getPort());
+        }
+        return ports.size();
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+}
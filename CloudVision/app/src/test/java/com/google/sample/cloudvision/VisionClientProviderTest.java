@@ -0,0 +1,83 @@
+package com.google.sample.cloudvision;
+
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VisionClientProviderTest {
+    private static final int REQUESTS = 20;
+
+    private StandInServer mServer;
+    private VisionClientProvider mProvider;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StandInServer((exchange, request) ->
+                StandInServer.respond(exchange, 200, StandInServer.RESPONSE));
+        // What AndroidHttp.newCompatibleTransport() returns on every supported API level.
+        mProvider = new VisionClientProvider(new NetHttpTransport(), "com.google.sample.cloudvision",
+                "0123abcd", mServer.getRootUrl());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void reusesOneConnectionForSequentialRequests() throws IOException {
+        for (int i = 0; i < REQUESTS; i++) {
+            List<TextRecognizer.Result> results = annotate(i);
+
+            assertEquals(StandInServer.TEXT, results.get(0).getText());
+        }
+
+        assertEquals(REQUESTS, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+    }
+
+    @Test
+    public void recordsTheLatencyOfEveryRequest() throws IOException {
+        ScanMetrics metrics = ScanMetrics.getInstance();
+        long network = metrics.getHistogram(ScanMetrics.Stage.NETWORK).getTotalCount();
+        long parse = metrics.getHistogram(ScanMetrics.Stage.PARSE).getTotalCount();
+
+        for (int i = 0; i < REQUESTS; i++) {
+            annotate(i);
+        }
+
+        assertEquals(network + REQUESTS, metrics.getHistogram(ScanMetrics.Stage.NETWORK).getTotalCount());
+        assertEquals(parse + REQUESTS, metrics.getHistogram(ScanMetrics.Stage.PARSE).getTotalCount());
+    }
+
+    @Test
+    public void identifiesTheAppAndAsksForTheFullTextOnly() throws IOException {
+        annotate(0);
+
+        HttpExchange exchange = mServer.getExchanges().get(0);
+        assertEquals("POST", exchange.getRequestMethod());
+        assertEquals("/v1/images:annotate", exchange.getRequestURI().getPath());
+        assertEquals("com.google.sample.cloudvision", exchange.getRequestHeaders().getFirst("X-Android-Package"));
+        assertEquals("0123abcd", exchange.getRequestHeaders().getFirst("X-Android-Cert"));
+        String query = exchange.getRequestURI().getQuery();
+        assertTrue(query, query.contains("key="));
+        assertTrue(query, query.contains("fields=responses(textAnnotations/description,error)"));
+    }
+
+    /**
+     * @param maxResults differs per call, so calls are never deduplicated.
+     */
+    private List<TextRecognizer.Result> annotate(int maxResults) throws IOException {
+        return mProvider.annotate(Collections.emptyList(), maxResults);
+    }
+}
@@ -0,0 +1,63 @@
+package com.google.sample.cloudvision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Classification latency while the ingredient rules are swapped underneath, the way
+ * {@link IngredientRuleset} patches are installed on the device: three threads classify a
+ * typical label while a fourth keeps applying a patch that adds or removes one keyword,
+ * compiles the result and swaps the classifier in. The swap thread's score is the time a
+ * patch takes from parsing to being in use.
+ *
+ * Run it with {@code ./gradlew :classifier:jmh}. That every scan sees one consistent set of rules
+ * is checked by {@code IngredientRulesetTest}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RulesetSwapBenchmark {
+    private static final String LABEL = "원재료명: 밀가루, 설탕, 젤라틴, 정제수, 우유 무첨가";
+
+    private final AtomicReference<VeganClassifier> mClassifier = new AtomicReference<>();
+    // Only used by the swap thread.
+    private IngredientRuleset mRuleset;
+
+    @Setup
+    public void setUp() throws IOException {
+        mRuleset = IngredientSources.read(VeganClassifierBenchmark.sourceDirectory(), 1);
+        mClassifier.set(new VeganClassifier(mRuleset.compile()));
+    }
+
+    @Benchmark
+    @Group("swap")
+    @GroupThreads(3)
+    public VeganLevel classify() {
+        return mClassifier.get().classify(LABEL);
+    }
+
+    @Benchmark
+    @Group("swap")
+    @GroupThreads(1)
+    public VeganClassifier patch() throws IOException {
+        char operation = mRuleset.getKeywords(VeganLevel.NON_VEGAN).contains("젤라틴") ? '-' : '+';
+        String patch = "base " + mRuleset.getVersion() + "\nversion " + (mRuleset.getVersion() + 1)
+                + "\n" + operation + "NON_VEGAN 젤라틴\n";
+        mRuleset = mRuleset.apply(IngredientRuleset.Patch.read(new StringReader(patch)));
+        VeganClassifier classifier = new VeganClassifier(mRuleset.compile());
+        mClassifier.set(classifier);
+        return classifier;
+    }
+}
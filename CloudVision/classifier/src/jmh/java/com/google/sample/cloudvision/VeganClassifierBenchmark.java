@@ -0,0 +1,146 @@
+package com.google.sample.cloudvision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of OCR text classification on ingredient panels of three sizes: a short one, a
+ * typical label as Cloud Vision returns it and a pathological multi-KB one full of words that
+ * start like long keywords, which drives the approximate matcher as deep as it goes.
+ *
+ * Besides the classifier, it measures the old approach of splitting the text and rebuilding
+ * the keyword lists on every scan, as the point the compiled dictionary started from. Run it
+ * with {@code ./gradlew :classifier:jmh}; the gc profiler reports the allocation per call as
+ * {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VeganClassifierBenchmark {
+    private static final String SHORT_LABEL = "원재료명: 정제수, 설탕, 코코아분말, 우유";
+    // OCR text of a typical label.
+    private static final String TYPICAL_LABEL = "원재료명 및 함량: 정제수, 밀가루(밀: 미국산), 설탕, 대두유,\n"
+            + "식물성크림(야자유, 정제소금), 효모, 탈지분유, 난백분, 유화제(대두레시틴), 향료,\n"
+            + "합성향료(바닐린), 비타민C, 덱스트린, 옥수수전분, 혼합제제(산도조절제, 구연산)\n"
+            + "알레르기 유발물질: 밀, 대두, 우유, 계란 함유\n"
+            + "이 제품은 메밀, 땅콩, 호두, 토마토를 사용한 제품과 같은 제조시설에서 제조하고 있습니다.\n";
+    private static final int PATHOLOGICAL_LENGTH = 4096;
+
+    @Param({"short", "typical", "pathological"})
+    public String panel;
+
+    private String mText;
+    private VeganClassifier mClassifier;
+    // The comma separated literals every scan used to split.
+    private String[] mLiterals;
+
+    @Setup
+    public void setUp() throws IOException {
+        IngredientRuleset ruleset = IngredientSources.read(sourceDirectory(), 1);
+        List<String> literals = new ArrayList<>();
+        for (VeganLevel level : IngredientSources.CATEGORIES.values()) {
+            literals.add(String.join(",", ruleset.getKeywords(level)));
+        }
+        mLiterals = literals.toArray(new String[0]);
+
+        ByteArrayOutputStream compiled = new ByteArrayOutputStream();
+        ruleset.compileTo(compiled);
+        // Mapped the way the app maps the asset.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(compiled.size());
+        buffer.put(compiled.toByteArray()).flip();
+        mClassifier = new VeganClassifier(IngredientDictionaryFile.read(buffer));
+
+        switch (panel) {
+            case "short":
+                mText = SHORT_LABEL;
+                break;
+            case "typical":
+                mText = TYPICAL_LABEL;
+                break;
+            default:
+                mText = pathologicalLabel(ruleset);
+                break;
+        }
+    }
+
+    /**
+     * @return the keyword list directory, passed in by the jmh task.
+     */
+    static File sourceDirectory() {
+        return new File(System.getProperty("ingredient.sources", "../app/src/main/dictionary"));
+    }
+
+    /**
+     * Every long keyword without its last syllable, as separate words, over and over.
+     */
+    private static String pathologicalLabel(IngredientRuleset ruleset) {
+        StringBuilder text = new StringBuilder(PATHOLOGICAL_LENGTH + 64);
+        while (text.length() < PATHOLOGICAL_LENGTH) {
+            for (VeganLevel level : IngredientSources.CATEGORIES.values()) {
+                for (String keyword : ruleset.getKeywords(level)) {
+                    if (TextNormalizer.normalize(keyword).getJamoLength() >= FuzzyIngredientMatcher.MIN_LENGTH
+                            && text.length() < PATHOLOGICAL_LENGTH) {
+                        text.append(keyword, 0, keyword.length() - 1).append(' ');
+                    }
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public int legacySplit() {
+        StringBuilder message = new StringBuilder();
+        for (String word : mText.split(",|:|\\(|\\)|\n|\\s")) {
+            message.append(word).append("\n");
+        }
+        List<List<String>> lists = new ArrayList<>();
+        for (String list : mLiterals) {
+            lists.add(Arrays.asList(list.split(",")));
+        }
+        VeganLevel[] levels = VeganLevel.values();
+        for (int i = 0; i < lists.size(); i++) {
+            for (String keyword : lists.get(i)) {
+                if (message.indexOf(keyword) > -1) {
+                    return levels[i].ordinal();
+                }
+            }
+        }
+        return VeganLevel.VEGAN.ordinal();
+    }
+
+    @Benchmark
+    public TextNormalizer.Text normalize() {
+        return TextNormalizer.normalize(mText);
+    }
+
+    @Benchmark
+    public VeganLevel exact() {
+        return mClassifier.getFile().getMatcher().findStrictest(TextNormalizer.normalize(mText));
+    }
+
+    @Benchmark
+    public VeganLevel classify() {
+        return mClassifier.classify(mText);
+    }
+
+    @Benchmark
+    public List<VeganVerdict.Match> findMatches() {
+        return mClassifier.findMatches(mText);
+    }
+}
@@ -0,0 +1,303 @@
+package com.google.sample.cloudvision;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Finds the long ingredient keywords that occur in a text with up to {@link #MAX_EDITS} typos,
+ * the way OCR misreads a jamo or splits a word with a stray space.
+ *
+ * The keywords are spelled out as jamo (see {@link TextNormalizer}) and kept in the trie of an
+ * {@link IngredientMatcher}. From the start of every word of the text, the trie is walked
+ * depth first while the band of the edit distance table between the keyword prefix and the text
+ * that can still stay within the allowed edits is carried along, which makes the walk a
+ * Levenshtein automaton run over the whole trie at once. A branch is abandoned as soon as the
+ * whole band exceeds the allowed edits, and once all edits are used up only the edges spelling
+ * the text on from the band are followed, so in practice the walk looks at a handful of nodes
+ * per word.
+ *
+ * Keywords shorter than {@link #MIN_LENGTH} jamo are only matched exactly: one edit turns too
+ * many short words into other words. For the same reason approximate matches have to start a
+ * word with the first syllable of the keyword; a misread first syllable would let the tail of
+ * a harmless word or a plain fruit concentrate pass for a keyword, like 과농축액 in 사과농축액 or
+ * 포도 과농축액 for 게농축액. Keywords inside longer words are still found exactly. Stray spaces
+ * count as edits, but an approximate match never reaches over a separator.
+ */
+public final class FuzzyIngredientMatcher {
+    /** Keywords with fewer jamo than this are left to exact matching. */
+    static final int MIN_LENGTH = 8;
+    static final int MAX_EDITS = 1;
+
+    private static final int BAND = 2 * MAX_EDITS + 1;
+    private static final int NO_MATCH = VeganLevel.VEGAN.ordinal();
+    private static final VeganLevel[] LEVELS = VeganLevel.values();
+
+    private final IngredientMatcher mTrie;
+    // Jamo in the longest keyword, the deepest the walk can go.
+    private final int mMaxLength;
+
+    private FuzzyIngredientMatcher(IngredientMatcher trie, int maxLength) {
+        mTrie = trie;
+        mMaxLength = maxLength;
+    }
+
+    /**
+     * Finds the strictest level among the keywords occurring in the text with at most
+     * {@link #MAX_EDITS} edits.
+     *
+     * @return {@link VeganLevel#VEGAN} when no keyword occurs at all.
+     */
+    public VeganLevel findStrictest(TextNormalizer.Text text) {
+        Walk walk = new Walk(text);
+        for (int start = 0, length = text.getJamoLength(); start < length && walk.mBest > 0; start++) {
+            if (isWordStart(text, start)) {
+                walk.from(start);
+            }
+        }
+        return LEVELS[walk.mBest];
+    }
+
+    /**
+     * Reports every keyword occurring in the text with at most {@link #MAX_EDITS} edits that
+     * {@link IngredientMatcher#findAll} does not find: those with edits, and those without that
+     * end inside a syllable of the text, like 돼지고기 in 돼지고긴.
+     */
+    public void findAll(TextNormalizer.Text text, MatchListener listener) {
+        Walk walk = new Walk(text);
+        walk.mListener = listener;
+        for (int start = 0, length = text.getJamoLength(); start < length; start++) {
+            if (isWordStart(text, start)) {
+                walk.from(start);
+            }
+        }
+    }
+
+    private static boolean isWordStart(TextNormalizer.Text text, int index) {
+        if (index == 0) {
+            return true;
+        }
+        char previous = text.getJamo(index - 1);
+        // Normalized text never has two gaps in a row.
+        return previous == TextNormalizer.SPACE || previous == TextNormalizer.SEPARATOR;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mMaxLength);
+        mTrie.writeTo(out);
+    }
+
+    static FuzzyIngredientMatcher readFrom(ByteBuffer in) {
+        int maxLength = in.getInt();
+        return new FuzzyIngredientMatcher(IngredientMatcher.readFrom(in), maxLength);
+    }
+
+    /**
+     * Receives the approximate keyword occurrences found by {@link #findAll}.
+     */
+    public interface MatchListener {
+        /**
+         * @param start   the index of the first normalized character of the occurrence.
+         * @param end     the index after its last normalized character.
+         * @param keyword the keyword as it is spelled in the dictionary.
+         * @param level   the level of the keyword.
+         */
+        void onMatch(int start, int end, String keyword, VeganLevel level);
+    }
+
+    /**
+     * The state of one search: row d of {@link #mRows} holds the edit distances between the
+     * first d jamo of the keyword and the first d - MAX_EDITS .. d + MAX_EDITS jamo of the
+     * text after the start.
+     */
+    private final class Walk {
+        private final TextNormalizer.Text mText;
+        private final int[] mRows;
+        // The keyword jamo along the current path.
+        private final char[] mPath;
+        private int mStart;
+        private int mAvailable;
+        // Jamo in the first syllable of the text, which the keyword has to start with exactly.
+        private int mFirstLength;
+        int mBest = NO_MATCH;
+        // Set to report every occurrence instead of stopping at the strictest level.
+        MatchListener mListener;
+
+        Walk(TextNormalizer.Text text) {
+            mText = text;
+            mRows = new int[(mMaxLength + 1) * BAND];
+            mPath = new char[mMaxLength];
+        }
+
+        void from(int start) {
+            mStart = start;
+            mAvailable = mText.getJamoLength() - start;
+            int state = 0;
+            int depth = 0;
+            int first = mText.getJamoOffset(start);
+            while (depth < mAvailable && mText.getJamoOffset(start + depth) == first) {
+                char c = mText.getJamo(start + depth);
+                state = mTrie.edge(state, c);
+                if (state < 0) {
+                    return;
+                }
+                mPath[depth++] = c;
+            }
+            mFirstLength = depth;
+            int row = depth * BAND;
+            for (int b = 0; b < BAND; b++) {
+                // Reaching i more text jamo after the first syllable takes i insertions.
+                int i = b - MAX_EDITS;
+                int j = depth + i;
+                boolean reachable = i == 0 || i > 0 && j <= mAvailable && mRows[row + b - 1] == i - 1
+                        && mText.getJamo(start + j - 1) != TextNormalizer.SEPARATOR;
+                mRows[row + b] = reachable ? i : Integer.MAX_VALUE / 2;
+            }
+            visit(state, depth, 0);
+        }
+
+        private void visit(int state, int depth, int min) {
+            if (min < MAX_EDITS) {
+                for (int edge = mTrie.firstEdge(state), end = mTrie.firstEdge(state + 1); edge < end; edge++) {
+                    if (!follow(mTrie.edgeTarget(edge), depth, mTrie.edgeChar(edge))) {
+                        return;
+                    }
+                }
+                return;
+            }
+            // Every further edit is one too many, so the keyword has to go on exactly like the
+            // text does after one of the band's positions that used up the edits.
+            int row = depth * BAND;
+            char followed = 0;
+            for (int b = 0; b < BAND; b++) {
+                int j = depth - MAX_EDITS + b;
+                if (mRows[row + b] != MAX_EDITS || j < 0 || j >= mAvailable) {
+                    continue;
+                }
+                char c = mText.getJamo(mStart + j);
+                if (c == followed) {
+                    continue;
+                }
+                followed = c;
+                int target = mTrie.edge(state, c);
+                if (target >= 0 && !follow(target, depth, c)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Steps over an edge and searches on from its target if that is still within the edits.
+         *
+         * @return false once nothing stricter can be found anymore.
+         */
+        private boolean follow(int target, int depth, char c) {
+            if (depth == mFirstLength && TextNormalizer.isFinal(c)) {
+                // The first syllable of the keyword goes on beyond the one of the text.
+                return true;
+            }
+            int min = step(depth, c);
+            if (min > MAX_EDITS) {
+                return true;
+            }
+            mPath[depth] = c;
+            int level = mTrie.output(target);
+            if (level != NO_MATCH && mListener != null && (min > 0 || endsInsideSyllable(depth + 1))) {
+                report(depth + 1, min, level);
+            }
+            if (level < mBest) {
+                mBest = level;
+                if (mBest == 0 && mListener == null) {
+                    // Nothing is stricter than the first level.
+                    return false;
+                }
+            }
+            visit(target, depth + 1, min);
+            return mBest > 0 || mListener != null;
+        }
+
+        /**
+         * @return whether the text spelling the keyword of the given length without edits ends
+         * inside a syllable, where {@link IngredientMatcher} cannot see it.
+         */
+        private boolean endsInsideSyllable(int length) {
+            int end = mStart + length;
+            return end < mText.getJamoLength() && mText.getJamoOffset(end) == mText.getJamoOffset(end - 1);
+        }
+
+        /**
+         * Reports the keyword spelled by the path of the given length, ending the occurrence at
+         * the shortest text that is the given distance away from it.
+         */
+        private void report(int length, int distance, int level) {
+            int row = length * BAND;
+            int b = 0;
+            while (mRows[row + b] != distance) {
+                b++;
+            }
+            // Keywords are longer than MAX_EDITS jamo, so the occurrence is never empty.
+            int end = mStart + length - MAX_EDITS + b;
+            mListener.onMatch(mText.getJamoOffset(mStart), mText.getJamoOffset(end - 1) + 1,
+                    TextNormalizer.compose(mPath, length), LEVELS[level]);
+        }
+
+        /**
+         * Fills row depth + 1 for the keyword jamo c.
+         *
+         * @return the smallest distance in the new row.
+         */
+        private int step(int depth, char c) {
+            int previous = depth * BAND;
+            int current = previous + BAND;
+            int min = Integer.MAX_VALUE / 2;
+            for (int b = 0; b < BAND; b++) {
+                int j = depth + 1 - MAX_EDITS + b;
+                int distance = Integer.MAX_VALUE / 2;
+                if (j >= 0 && j <= mAvailable) {
+                    // A separator ends an ingredient, so it is never matched, substituted or
+                    // inserted: that would join 돼지, 고기 into 돼지고기.
+                    if (j > 0 && mText.getJamo(mStart + j - 1) != TextNormalizer.SEPARATOR) {
+                        // c against text jamo j - 1, substituted if they differ.
+                        int cost = mText.getJamo(mStart + j - 1) == c ? 0 : 1;
+                        distance = mRows[previous + b] + cost;
+                        if (b > 0) {
+                            // Text jamo j - 1 inserted.
+                            distance = Math.min(distance, mRows[current + b - 1] + 1);
+                        }
+                    }
+                    if (b + 1 < BAND) {
+                        // Keyword jamo c missing from the text.
+                        distance = Math.min(distance, mRows[previous + b + 1] + 1);
+                    }
+                }
+                mRows[current + b] = distance;
+                min = Math.min(min, distance);
+            }
+            return min;
+        }
+    }
+
+    /**
+     * Collects the keywords long enough for approximate matching.
+     */
+    public static final class Builder {
+        private final IngredientMatcher.Builder mTrie = new IngredientMatcher.Builder();
+        private int mMaxLength;
+
+        /**
+         * Adds the normalized keyword if it has at least {@link #MIN_LENGTH} jamo.
+         */
+        public Builder add(TextNormalizer.Text keyword, VeganLevel level) {
+            int length = keyword.getJamoLength();
+            if (length >= MIN_LENGTH) {
+                mTrie.add(keyword.jamoToString(), level);
+                mMaxLength = Math.max(mMaxLength, length);
+            }
+            return this;
+        }
+
+        public FuzzyIngredientMatcher build() {
+            return new FuzzyIngredientMatcher(mTrie.build(), mMaxLength);
+        }
+    }
+}
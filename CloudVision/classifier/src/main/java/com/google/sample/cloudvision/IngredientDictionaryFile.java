@@ -0,0 +1,189 @@
+package com.google.sample.cloudvision;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary, precompiled form of the ingredient dictionary.
+ *
+ * The file is produced at build time from the plain-text keyword lists in
+ * {@code app/src/main/dictionary}, or on the device from an updated {@link IngredientRuleset},
+ * and has the following big-endian layout:
+ * <pre>
+ *   int    magic ("VDIC")
+ *   int    format version
+ *   int    dictionary version
+ *   int    category count
+ *   {int level ordinal, int keyword count} per category
+ *   int    exclusion phrase count
+ *   {int length, char[length]} per exclusion phrase
+ *   serialized {@link IngredientMatcher} of all keywords
+ *   serialized {@link FuzzyIngredientMatcher} of the long keywords
+ * </pre>
+ * Keywords and exclusion phrases are stored in the form {@link TextNormalizer} brings them to,
+ * so they can be matched against normalized text directly.
+ * Reading only validates the header; the automaton tables are used in place, so a memory
+ * mapped file is ready for classification without any parsing.
+ */
+public final class IngredientDictionaryFile {
+    static final int MAGIC = 0x56444943;
+    static final int FORMAT_VERSION = 4;
+
+    private final int mVersion;
+    private final Map<VeganLevel, Integer> mKeywordCounts;
+    private final String[] mExclusions;
+    private final IngredientMatcher mMatcher;
+    private final FuzzyIngredientMatcher mFuzzyMatcher;
+
+    private IngredientDictionaryFile(int version, Map<VeganLevel, Integer> keywordCounts,
+                                     String[] exclusions, IngredientMatcher matcher,
+                                     FuzzyIngredientMatcher fuzzyMatcher) {
+        mVersion = version;
+        mKeywordCounts = keywordCounts;
+        mExclusions = exclusions;
+        mMatcher = matcher;
+        mFuzzyMatcher = fuzzyMatcher;
+    }
+
+    /**
+     * @return the version of the keyword lists the file was compiled from.
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the number of keywords compiled in for the level, 0 if the level has none.
+     */
+    public int getKeywordCount(VeganLevel level) {
+        Integer count = mKeywordCounts.get(level);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * @return the normalized phrases that cancel the keyword right before them, like "무첨가".
+     */
+    public List<String> getExclusions() {
+        return Collections.unmodifiableList(Arrays.asList(mExclusions));
+    }
+
+    public IngredientMatcher getMatcher() {
+        return mMatcher;
+    }
+
+    public FuzzyIngredientMatcher getFuzzyMatcher() {
+        return mFuzzyMatcher;
+    }
+
+    /**
+     * Compiles the keywords of every category and writes the dictionary file, without
+     * exclusion phrases.
+     */
+    public static void compile(Map<VeganLevel, ? extends Iterable<String>> keywords, int version,
+                               OutputStream out) throws IOException {
+        compile(keywords, Collections.emptyList(), version, out);
+    }
+
+    /**
+     * Compiles the keywords of every category and the exclusion phrases and writes the
+     * dictionary file.
+     *
+     * @throws IllegalArgumentException if a keyword or exclusion phrase is empty once normalized.
+     */
+    public static void compile(Map<VeganLevel, ? extends Iterable<String>> keywords,
+                               Iterable<String> exclusions, int version, OutputStream out)
+            throws IOException {
+        IngredientMatcher.Builder builder = new IngredientMatcher.Builder();
+        FuzzyIngredientMatcher.Builder fuzzyBuilder = new FuzzyIngredientMatcher.Builder();
+        Map<VeganLevel, Integer> counts = new EnumMap<>(VeganLevel.class);
+        for (Map.Entry<VeganLevel, ? extends Iterable<String>> entry : keywords.entrySet()) {
+            int count = 0;
+            for (String keyword : entry.getValue()) {
+                TextNormalizer.Text normalized = TextNormalizer.normalize(keyword);
+                builder.add(normalized, entry.getKey());
+                fuzzyBuilder.add(normalized, entry.getKey());
+                count++;
+            }
+            counts.put(entry.getKey(), count);
+        }
+
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(version);
+        data.writeInt(counts.size());
+        for (Map.Entry<VeganLevel, Integer> entry : counts.entrySet()) {
+            data.writeInt(entry.getKey().ordinal());
+            data.writeInt(entry.getValue());
+        }
+        List<String> phrases = new ArrayList<>();
+        for (String exclusion : exclusions) {
+            String phrase = TextNormalizer.normalize(exclusion).toString();
+            if (phrase.isEmpty()) {
+                // It would follow every keyword and cancel them all.
+                throw new IllegalArgumentException("Exclusion phrases must not be empty: " + exclusion);
+            }
+            phrases.add(phrase);
+        }
+        data.writeInt(phrases.size());
+        for (String phrase : phrases) {
+            data.writeInt(phrase.length());
+            data.writeChars(phrase);
+        }
+        builder.build().writeTo(data);
+        fuzzyBuilder.build().writeTo(data);
+        data.flush();
+    }
+
+    /**
+     * Reads a dictionary from the buffer, usually a memory mapped file. The returned matcher
+     * keeps referring to the buffer's contents.
+     *
+     * @throws IOException if the buffer does not hold a dictionary in a supported format.
+     */
+    public static IngredientDictionaryFile read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an ingredient dictionary");
+            }
+            int format = buffer.getInt();
+            if (format != FORMAT_VERSION) {
+                throw new IOException("Unsupported ingredient dictionary format " + format);
+            }
+            int version = buffer.getInt();
+            int categories = buffer.getInt();
+            VeganLevel[] levels = VeganLevel.values();
+            Map<VeganLevel, Integer> counts = new EnumMap<>(VeganLevel.class);
+            for (int i = 0; i < categories; i++) {
+                int level = buffer.getInt();
+                int count = buffer.getInt();
+                if (level < 0 || level >= levels.length) {
+                    throw new IOException("Unknown ingredient category " + level);
+                }
+                counts.put(levels[level], count);
+            }
+            String[] exclusions = new String[buffer.getInt()];
+            for (int i = 0; i < exclusions.length; i++) {
+                char[] phrase = new char[buffer.getInt()];
+                buffer.asCharBuffer().get(phrase);
+                buffer.position(buffer.position() + 2 * phrase.length);
+                exclusions[i] = new String(phrase);
+            }
+            IngredientMatcher matcher = IngredientMatcher.readFrom(buffer);
+            FuzzyIngredientMatcher fuzzyMatcher = FuzzyIngredientMatcher.readFrom(buffer);
+            return new IngredientDictionaryFile(version, counts, exclusions, matcher, fuzzyMatcher);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException and friends: the file is truncated.
+            throw new IOException("Corrupt ingredient dictionary", e);
+        }
+    }
+}
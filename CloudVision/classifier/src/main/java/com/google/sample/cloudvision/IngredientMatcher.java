@@ -0,0 +1,338 @@
+package com.google.sample.cloudvision;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton over the ingredient keywords of every {@link VeganLevel}.
+ *
+ * All keyword lists are compiled into a single automaton once, so a piece of OCR text is
+ * classified in one pass over its characters no matter how many keywords there are. The
+ * automaton is stored in flat tables that are either built in memory or viewed directly from a
+ * compiled dictionary file (see {@link IngredientDictionaryFile}). It is immutable, so one
+ * instance can be shared by any number of threads.
+ */
+public final class IngredientMatcher {
+    private static final int ROOT = 0;
+    private static final byte NO_MATCH = (byte) VeganLevel.VEGAN.ordinal();
+    private static final VeganLevel[] LEVELS = VeganLevel.values();
+
+    // Outgoing edges of state s are edgeChars/edgeTargets[edgeStart[s] .. edgeStart[s + 1]),
+    // sorted by character.
+    private final IntBuffer mEdgeStart;
+    private final CharBuffer mEdgeChars;
+    private final IntBuffer mEdgeTargets;
+    private final IntBuffer mFailure;
+    // Nearest state down the failure links at which a keyword ends, ROOT if there is none.
+    private final IntBuffer mOutputLink;
+    // Length of the path to the state, i.e. of the keyword ending there.
+    private final CharBuffer mDepth;
+    // Strictest level of any keyword that ends at the state, following failure links.
+    private final ByteBuffer mStrictest;
+    // Level of the keyword spelled by the path to the state, if it is one.
+    private final ByteBuffer mOutput;
+
+    private IngredientMatcher(IntBuffer edgeStart, CharBuffer edgeChars, IntBuffer edgeTargets,
+                              IntBuffer failure, IntBuffer outputLink, CharBuffer depth,
+                              ByteBuffer strictest, ByteBuffer output) {
+        mEdgeStart = edgeStart;
+        mEdgeChars = edgeChars;
+        mEdgeTargets = edgeTargets;
+        mFailure = failure;
+        mOutputLink = outputLink;
+        mDepth = depth;
+        mStrictest = strictest;
+        mOutput = output;
+    }
+
+    /**
+     * Finds the strictest level among all keywords occurring in the text.
+     *
+     * @return {@link VeganLevel#VEGAN} when no keyword occurs at all.
+     */
+    public VeganLevel findStrictest(CharSequence text) {
+        int state = ROOT;
+        int best = NO_MATCH;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = next(state, text.charAt(i));
+            int level = mStrictest.get(state);
+            if (level < best) {
+                best = level;
+                if (best == 0) {
+                    // Nothing is stricter than the first level.
+                    break;
+                }
+            }
+        }
+        return LEVELS[best];
+    }
+
+    /**
+     * Reports every occurrence of every keyword in the text, including overlapping ones.
+     */
+    public void findAll(CharSequence text, MatchListener listener) {
+        int state = ROOT;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            state = next(state, text.charAt(i));
+            int match = mOutput.get(state) != NO_MATCH ? state : mOutputLink.get(state);
+            while (match != ROOT) {
+                listener.onMatch(i + 1 - mDepth.get(match), i + 1, LEVELS[mOutput.get(match)]);
+                match = mOutputLink.get(match);
+            }
+        }
+    }
+
+    /**
+     * @return the number of states in the automaton, including the root.
+     */
+    public int size() {
+        return mFailure.limit();
+    }
+
+    /**
+     * Writes the tables in the layout read back by {@link #readFrom(ByteBuffer)}: the state and
+     * edge counts, then all int tables, then the char table and finally the byte tables, so
+     * every table stays aligned to its element size.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        int states = mFailure.limit();
+        int edges = mEdgeChars.limit();
+        out.writeInt(states);
+        out.writeInt(edges);
+        for (int i = 0; i <= states; i++) {
+            out.writeInt(mEdgeStart.get(i));
+        }
+        for (int i = 0; i < edges; i++) {
+            out.writeInt(mEdgeTargets.get(i));
+        }
+        for (int i = 0; i < states; i++) {
+            out.writeInt(mFailure.get(i));
+        }
+        for (int i = 0; i < states; i++) {
+            out.writeInt(mOutputLink.get(i));
+        }
+        for (int i = 0; i < edges; i++) {
+            out.writeChar(mEdgeChars.get(i));
+        }
+        for (int i = 0; i < states; i++) {
+            out.writeChar(mDepth.get(i));
+        }
+        for (int i = 0; i < states; i++) {
+            out.writeByte(mStrictest.get(i));
+        }
+        for (int i = 0; i < states; i++) {
+            out.writeByte(mOutput.get(i));
+        }
+    }
+
+    /**
+     * Creates a matcher that works directly on the tables in the buffer, without copying them.
+     * The buffer's position is advanced past the tables.
+     */
+    static IngredientMatcher readFrom(ByteBuffer in) {
+        int states = in.getInt();
+        int edges = in.getInt();
+        IntBuffer edgeStart = slice(in, (states + 1) * 4).asIntBuffer();
+        IntBuffer edgeTargets = slice(in, edges * 4).asIntBuffer();
+        IntBuffer failure = slice(in, states * 4).asIntBuffer();
+        IntBuffer outputLink = slice(in, states * 4).asIntBuffer();
+        CharBuffer edgeChars = slice(in, edges * 2).asCharBuffer();
+        CharBuffer depth = slice(in, states * 2).asCharBuffer();
+        ByteBuffer strictest = slice(in, states);
+        ByteBuffer output = slice(in, states);
+        return new IngredientMatcher(edgeStart, edgeChars, edgeTargets, failure, outputLink, depth,
+                strictest, output);
+    }
+
+    private static ByteBuffer slice(ByteBuffer in, int length) {
+        ByteBuffer slice = in.slice();
+        slice.limit(length);
+        slice.order(in.order());
+        in.position(in.position() + length);
+        return slice;
+    }
+
+    // Plain trie access for walks that do not follow failure links, see FuzzyIngredientMatcher.
+    // The edges of a state are firstEdge(state) .. firstEdge(state + 1).
+
+    int firstEdge(int state) {
+        return mEdgeStart.get(state);
+    }
+
+    char edgeChar(int edge) {
+        return mEdgeChars.get(edge);
+    }
+
+    int edgeTarget(int edge) {
+        return mEdgeTargets.get(edge);
+    }
+
+    /**
+     * @return the ordinal of the level of the keyword ending at the state, or that of
+     * {@link VeganLevel#VEGAN} if no keyword ends there.
+     */
+    int output(int state) {
+        return mOutput.get(state);
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = edge(state, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = mFailure.get(state);
+        }
+    }
+
+    /**
+     * @return the state reached from the state over the character without following failure
+     * links, or -1 if there is no such edge.
+     */
+    int edge(int state, char c) {
+        int low = mEdgeStart.get(state);
+        int high = mEdgeStart.get(state + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = mEdgeChars.get(mid);
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mEdgeTargets.get(mid);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Receives the keyword occurrences found by {@link #findAll}.
+     */
+    public interface MatchListener {
+        /**
+         * @param start the index of the first character of the keyword in the text.
+         * @param end   the index after the last character of the keyword.
+         * @param level the level of the keyword.
+         */
+        void onMatch(int start, int end, VeganLevel level);
+    }
+
+    /**
+     * Collects keywords and compiles them into an {@link IngredientMatcher}.
+     */
+    public static final class Builder {
+        private final Node mRoot = new Node();
+        private int mNodeCount = 1;
+
+        /**
+         * Adds a keyword for the given level. Adding the same keyword for several levels keeps
+         * the strictest one.
+         */
+        public Builder add(CharSequence keyword, VeganLevel level) {
+            return add(keyword, 0, keyword.length(), level);
+        }
+
+        private Builder add(CharSequence keyword, int start, int end, VeganLevel level) {
+            if (start >= end) {
+                throw new IllegalArgumentException("Keywords must not be empty");
+            }
+            if (level == VeganLevel.VEGAN) {
+                throw new IllegalArgumentException("A keyword cannot mark a product as vegan");
+            }
+            Node node = mRoot;
+            for (int i = start; i < end; i++) {
+                char c = keyword.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                    mNodeCount++;
+                }
+                node = child;
+            }
+            node.level = (byte) Math.min(node.level, level.ordinal());
+            return this;
+        }
+
+        public Builder addAll(Iterable<? extends CharSequence> keywords, VeganLevel level) {
+            for (CharSequence keyword : keywords) {
+                add(keyword, level);
+            }
+            return this;
+        }
+
+        public IngredientMatcher build() {
+            int[] edgeStart = new int[mNodeCount + 1];
+            char[] edgeChars = new char[mNodeCount - 1];
+            int[] edgeTargets = new int[mNodeCount - 1];
+            int[] failure = new int[mNodeCount];
+            int[] outputLink = new int[mNodeCount];
+            char[] depth = new char[mNodeCount];
+            byte[] strictest = new byte[mNodeCount];
+            byte[] output = new byte[mNodeCount];
+
+            // Number the states breadth first, so a state's failure target always has a
+            // smaller id and is complete by the time the state itself is visited.
+            List<Node> order = new ArrayList<>(mNodeCount);
+            mRoot.id = ROOT;
+            order.add(mRoot);
+            ArrayDeque<Node> queue = new ArrayDeque<>();
+            queue.add(mRoot);
+            int edge = 0;
+            while (!queue.isEmpty()) {
+                Node node = queue.poll();
+                edgeStart[node.id] = edge;
+                output[node.id] = node.level;
+                for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                    Node child = entry.getValue();
+                    child.id = order.size();
+                    depth[child.id] = (char) (depth[node.id] + 1);
+                    order.add(child);
+                    queue.add(child);
+                    edgeChars[edge] = entry.getKey();
+                    edgeTargets[edge] = child.id;
+                    edge++;
+                }
+            }
+            edgeStart[mNodeCount] = edge;
+
+            strictest[ROOT] = NO_MATCH;
+            for (Node node : order) {
+                for (Map.Entry<Character, Node> entry : node.children.entrySet()) {
+                    Node child = entry.getValue();
+                    Node fallback = node.failure;
+                    while (fallback != null && !fallback.children.containsKey(entry.getKey())) {
+                        fallback = fallback.failure;
+                    }
+                    child.failure = fallback == null ? mRoot : fallback.children.get(entry.getKey());
+                    failure[child.id] = child.failure.id;
+                    outputLink[child.id] = output[child.failure.id] != NO_MATCH
+                            ? child.failure.id : outputLink[child.failure.id];
+                    strictest[child.id] = (byte) Math.min(child.level, strictest[child.failure.id]);
+                }
+            }
+            return new IngredientMatcher(IntBuffer.wrap(edgeStart), CharBuffer.wrap(edgeChars),
+                    IntBuffer.wrap(edgeTargets), IntBuffer.wrap(failure), IntBuffer.wrap(outputLink),
+                    CharBuffer.wrap(depth), ByteBuffer.wrap(strictest), ByteBuffer.wrap(output));
+        }
+    }
+
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        byte level = NO_MATCH;
+        Node failure;
+        int id;
+    }
+}
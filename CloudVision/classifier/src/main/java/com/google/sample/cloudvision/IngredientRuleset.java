@@ -0,0 +1,287 @@
+package com.google.sample.cloudvision;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ingredient keywords of every level and the exclusion phrases, in a plain-text form that
+ * can be updated on the device without a new APK.
+ *
+ * A ruleset looks like this, blank lines and lines starting with # are skipped:
+ * <pre>
+ *   version 3
+ *   [NON_VEGAN]
+ *   돼지고기
+ *   [EXCLUDE]
+ *   무첨가
+ * </pre>
+ * A {@link Patch} takes a ruleset from one version to a later one by adding and removing
+ * single entries. Rulesets are immutable, applying a patch returns a new one, and
+ * {@link #compile()} turns one into a dictionary for {@link VeganClassifier}.
+ */
+public final class IngredientRuleset {
+    /** The section of the exclusion phrases. */
+    static final String EXCLUDE = "EXCLUDE";
+
+    private final int mVersion;
+    private final Map<VeganLevel, Set<String>> mKeywords = new EnumMap<>(VeganLevel.class);
+    private final Set<String> mExclusions;
+
+    public IngredientRuleset(int version, Map<VeganLevel, ? extends Collection<String>> keywords,
+                             Collection<String> exclusions) {
+        mVersion = version;
+        for (Map.Entry<VeganLevel, ? extends Collection<String>> entry : keywords.entrySet()) {
+            if (entry.getKey() == VeganLevel.VEGAN) {
+                throw new IllegalArgumentException("No keyword marks a product as vegan");
+            }
+            mKeywords.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<>(entry.getValue())));
+        }
+        mExclusions = Collections.unmodifiableSet(new LinkedHashSet<>(exclusions));
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the keywords that mark a product as the level, in the order they were added.
+     */
+    public Set<String> getKeywords(VeganLevel level) {
+        Set<String> keywords = mKeywords.get(level);
+        return keywords != null ? keywords : Collections.emptySet();
+    }
+
+    public Set<String> getExclusions() {
+        return mExclusions;
+    }
+
+    /**
+     * @throws IOException if the text is not a ruleset.
+     */
+    public static IngredientRuleset read(Reader in) throws IOException {
+        int version = -1;
+        Map<VeganLevel, List<String>> keywords = new EnumMap<>(VeganLevel.class);
+        List<String> exclusions = new ArrayList<>();
+        List<String> section = null;
+        BufferedReader reader = new BufferedReader(in);
+        for (String line; (line = reader.readLine()) != null; ) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (version < 0) {
+                version = parseHeader(line, "version");
+            } else if (line.startsWith("[") && line.endsWith("]")) {
+                String name = line.substring(1, line.length() - 1);
+                if (EXCLUDE.equals(name)) {
+                    section = exclusions;
+                } else {
+                    section = new ArrayList<>();
+                    keywords.put(parseLevel(name), section);
+                }
+            } else if (section == null) {
+                throw new IOException("Entry outside of a section: " + line);
+            } else {
+                section.add(line);
+            }
+        }
+        if (version < 0) {
+            throw new IOException("Empty ruleset");
+        }
+        return new IngredientRuleset(version, keywords, exclusions);
+    }
+
+    public void writeTo(Writer out) throws IOException {
+        out.write("version " + mVersion + "\n");
+        for (Map.Entry<VeganLevel, Set<String>> entry : mKeywords.entrySet()) {
+            writeSection(out, entry.getKey().name(), entry.getValue());
+        }
+        writeSection(out, EXCLUDE, mExclusions);
+        out.flush();
+    }
+
+    private static void writeSection(Writer out, String name, Set<String> entries) throws IOException {
+        out.write("[" + name + "]\n");
+        for (String entry : entries) {
+            out.write(entry);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @return the ruleset the patch makes of this one.
+     * @throws IOException if the patch is not meant for this version.
+     */
+    public IngredientRuleset apply(Patch patch) throws IOException {
+        if (patch.mBase != mVersion) {
+            throw new IOException("Patch for version " + patch.mBase + " applied to version " + mVersion);
+        }
+        Map<VeganLevel, Set<String>> keywords = new EnumMap<>(VeganLevel.class);
+        for (Map.Entry<VeganLevel, Set<String>> entry : mKeywords.entrySet()) {
+            keywords.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+        }
+        Set<String> exclusions = new LinkedHashSet<>(mExclusions);
+        for (Patch.Change change : patch.mChanges) {
+            Set<String> section = exclusions;
+            if (change.mLevel != null) {
+                section = keywords.get(change.mLevel);
+                if (section == null) {
+                    section = new LinkedHashSet<>();
+                    keywords.put(change.mLevel, section);
+                }
+            }
+            // Adding what is there or removing what is not changes nothing.
+            if (change.mAdd) {
+                section.add(change.mEntry);
+            } else {
+                section.remove(change.mEntry);
+            }
+        }
+        return new IngredientRuleset(patch.mVersion, keywords, exclusions);
+    }
+
+    /**
+     * Compiles the ruleset and writes the dictionary file.
+     */
+    public void compileTo(OutputStream out) throws IOException {
+        IngredientDictionaryFile.compile(mKeywords, mExclusions, mVersion, out);
+    }
+
+    /**
+     * Compiles the ruleset into a dictionary in memory.
+     */
+    public IngredientDictionaryFile compile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compileTo(out);
+        return IngredientDictionaryFile.read(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    private static int parseHeader(String line, String name) throws IOException {
+        String[] parts = line.split("\\s+");
+        if (parts.length != 2 || !parts[0].equals(name)) {
+            throw new IOException("Expected \"" + name + " <number>\" but got: " + line);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad " + name + ": " + line, e);
+        }
+    }
+
+    private static VeganLevel parseLevel(String name) throws IOException {
+        try {
+            VeganLevel level = VeganLevel.valueOf(name);
+            if (level != VeganLevel.VEGAN) {
+                return level;
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported below.
+        }
+        throw new IOException("Unknown section " + name);
+    }
+
+    /**
+     * The changes from one ruleset version to a later one:
+     * <pre>
+     *   base 3
+     *   version 4
+     *   +NON_VEGAN 젤라틴
+     *   -LACTO 유청
+     *   +EXCLUDE 무함유
+     * </pre>
+     */
+    public static final class Patch {
+        private final int mBase;
+        private final int mVersion;
+        private final List<Change> mChanges;
+
+        private Patch(int base, int version, List<Change> changes) {
+            mBase = base;
+            mVersion = version;
+            mChanges = changes;
+        }
+
+        /**
+         * @return the version of the ruleset the patch applies to.
+         */
+        public int getBase() {
+            return mBase;
+        }
+
+        /**
+         * @return the version of the patched ruleset.
+         */
+        public int getVersion() {
+            return mVersion;
+        }
+
+        /**
+         * @throws IOException if the text is not a patch.
+         */
+        public static Patch read(Reader in) throws IOException {
+            int base = -1;
+            int version = -1;
+            List<Change> changes = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(in);
+            for (String line; (line = reader.readLine()) != null; ) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (base < 0) {
+                    base = parseHeader(line, "base");
+                } else if (version < 0) {
+                    version = parseHeader(line, "version");
+                } else {
+                    changes.add(Change.parse(line));
+                }
+            }
+            if (version <= base) {
+                throw new IOException("Patch from version " + base + " to " + version);
+            }
+            return new Patch(base, version, changes);
+        }
+
+        private static final class Change {
+            final boolean mAdd;
+            // Null for an exclusion phrase.
+            final VeganLevel mLevel;
+            final String mEntry;
+
+            Change(boolean add, VeganLevel level, String entry) {
+                mAdd = add;
+                mLevel = level;
+                mEntry = entry;
+            }
+
+            static Change parse(String line) throws IOException {
+                char operation = line.charAt(0);
+                int space = line.indexOf(' ');
+                if ((operation != '+' && operation != '-') || space < 0) {
+                    throw new IOException("Expected \"+SECTION entry\" or \"-SECTION entry\" but got: " + line);
+                }
+                String section = line.substring(1, space);
+                String entry = line.substring(space + 1).trim();
+                // Separators and spaces alone normalize to nothing, which would match everywhere.
+                if (TextNormalizer.normalize(entry).length() == 0) {
+                    throw new IOException("Empty entry: " + line);
+                }
+                VeganLevel level = EXCLUDE.equals(section) ? null : parseLevel(section);
+                return new Change(operation == '+', level, entry);
+            }
+        }
+    }
+}
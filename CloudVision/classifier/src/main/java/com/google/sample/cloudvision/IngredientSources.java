@@ -0,0 +1,63 @@
+package com.google.sample.cloudvision;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the plain-text keyword lists in {@code app/src/main/dictionary} that the ingredient
+ * dictionary is built from: one {@code .txt} file per category with one keyword per line, and
+ * {@code exclude.txt} with the exclusion phrases. Blank lines and lines starting with # are
+ * skipped. The build, the benchmarks and the tests all read the lists through here.
+ */
+public final class IngredientSources {
+    /** The category files and the level each of them marks a product as. */
+    public static final Map<String, VeganLevel> CATEGORIES;
+
+    static {
+        Map<String, VeganLevel> categories = new LinkedHashMap<>();
+        categories.put("meat", VeganLevel.NON_VEGAN);
+        categories.put("chicken", VeganLevel.SEMI);
+        categories.put("fish", VeganLevel.PESCO);
+        categories.put("egg", VeganLevel.LACTO_OVO);
+        categories.put("milk", VeganLevel.LACTO);
+        CATEGORIES = Collections.unmodifiableMap(categories);
+    }
+
+    private static final String EXCLUSIONS = "exclude";
+
+    private IngredientSources() {
+    }
+
+    /**
+     * @return the keyword lists and exclusion phrases in the directory as a ruleset of the version.
+     */
+    public static IngredientRuleset read(File directory, int version) throws IOException {
+        Map<VeganLevel, List<String>> keywords = new EnumMap<>(VeganLevel.class);
+        for (Map.Entry<String, VeganLevel> category : CATEGORIES.entrySet()) {
+            keywords.put(category.getValue(), readList(directory, category.getKey()));
+        }
+        return new IngredientRuleset(version, keywords, readList(directory, EXCLUSIONS));
+    }
+
+    /**
+     * @return the entries of {@code <name>.txt} in the directory, in file order.
+     */
+    public static List<String> readList(File directory, String name) throws IOException {
+        List<String> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(directory, name + ".txt").toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                entries.add(line);
+            }
+        }
+        return entries;
+    }
+}
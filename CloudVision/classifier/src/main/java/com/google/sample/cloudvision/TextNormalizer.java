@@ -0,0 +1,215 @@
+package com.google.sample.cloudvision;
+
+/**
+ * Brings OCR text and ingredient keywords into one canonical form before matching.
+ *
+ * A single pass over the text folds full-width ASCII and half-width Hangul to their usual
+ * forms, lowercases Latin letters, turns every run of whitespace into one space and every run
+ * containing one of the separators {@code , : ( )} into one line break, just like the old
+ * tokenization did. The same pass also spells every Hangul syllable out as its conjoining
+ * jamo for {@link FuzzyIngredientMatcher}, so a misread vowel costs one edit instead of a whole
+ * syllable. Both forms keep the offset of each character in the source text.
+ */
+public final class TextNormalizer {
+    static final char SPACE = ' ';
+    static final char SEPARATOR = '\n';
+
+    private static final int SYLLABLE_BASE = 0xac00;
+    private static final int SYLLABLE_LAST = 0xd7a3;
+    private static final int LEADINGS = 19;
+    private static final int VOWELS = 21;
+    private static final int FINALS = 28;
+    private static final char LEADING_BASE = 0x1100;
+    private static final char VOWEL_BASE = 0x1161;
+    private static final char FINAL_BASE = 0x11a7;
+
+    private TextNormalizer() {
+    }
+
+    public static Text normalize(CharSequence source) {
+        int length = source.length();
+        Text text = new Text(length);
+        // The pending run of whitespace and separators, written out before the next character.
+        char gap = 0;
+        for (int i = 0; i < length; i++) {
+            char c = fold(source.charAt(i));
+            if (c == ',' || c == ':' || c == '(' || c == ')') {
+                gap = SEPARATOR;
+            } else if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                if (c == '\n' || c == '\r') {
+                    gap = SEPARATOR;
+                } else if (gap == 0) {
+                    gap = SPACE;
+                }
+            } else {
+                if (gap != 0 && text.mLength > 0) {
+                    text.append(gap, i - 1);
+                }
+                gap = 0;
+                text.append(c, i);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * @return whether the jamo is the final consonant of a syllable.
+     */
+    static boolean isFinal(char jamo) {
+        return jamo > FINAL_BASE && jamo < FINAL_BASE + FINALS;
+    }
+
+    /**
+     * Spells conjoining jamo back as Hangul syllables, the reverse of the jamo spelling of
+     * {@link Text}. Other characters are kept as they are.
+     */
+    static String compose(char[] jamo, int length) {
+        StringBuilder text = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = jamo[i];
+            int leading = c - LEADING_BASE;
+            int vowel = i + 1 < length ? jamo[i + 1] - VOWEL_BASE : -1;
+            if (leading < 0 || leading >= LEADINGS || vowel < 0 || vowel >= VOWELS) {
+                text.append(c);
+                i++;
+                continue;
+            }
+            int trailing = i + 2 < length ? jamo[i + 2] - FINAL_BASE : 0;
+            if (trailing <= 0 || trailing >= FINALS) {
+                trailing = 0;
+            }
+            text.append((char) (SYLLABLE_BASE + (leading * VOWELS + vowel) * FINALS + trailing));
+            i += trailing != 0 ? 3 : 2;
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the character with full-width ASCII and half-width Hangul folded to their common
+     * forms and Latin letters lowercased.
+     */
+    static char fold(char c) {
+        if (c >= '\uff01' && c <= '\uff5e') {
+            c = (char) (c - 0xff01 + '!');
+        } else if (c == '\u3000') {
+            c = ' ';
+        } else if (c >= '\uffa0' && c <= '\uffdc') {
+            c = foldHalfwidthHangul(c);
+        }
+        if (c >= 'A' && c <= 'Z') {
+            c = (char) (c + ('a' - 'A'));
+        }
+        return c;
+    }
+
+    private static char foldHalfwidthHangul(char c) {
+        if (c == '\uffa0') {
+            return '\u3164';
+        } else if (c <= '\uffbe') {
+            return (char) (c - 0xffa1 + 0x3131);
+        } else if (c >= '\uffc2' && c <= '\uffc7') {
+            return (char) (c - 0xffc2 + 0x314f);
+        } else if (c >= '\uffca' && c <= '\uffcf') {
+            return (char) (c - 0xffca + 0x3155);
+        } else if (c >= '\uffd2' && c <= '\uffd7') {
+            return (char) (c - 0xffd2 + 0x315b);
+        } else if (c >= '\uffda') {
+            return (char) (c - 0xffda + 0x3161);
+        }
+        // Unassigned code points in the block.
+        return c;
+    }
+
+    /**
+     * Normalized text, usable as a {@link CharSequence} for exact matching, together with its
+     * jamo spelling.
+     */
+    public static final class Text implements CharSequence {
+        private final char[] mChars;
+        private final int[] mSourceOffsets;
+        private int mLength;
+        // A syllable is at most three jamo.
+        private final char[] mJamo;
+        private final int[] mJamoOffsets;
+        private int mJamoLength;
+
+        private Text(int capacity) {
+            mChars = new char[capacity];
+            mSourceOffsets = new int[capacity];
+            mJamo = new char[3 * capacity];
+            mJamoOffsets = new int[3 * capacity];
+        }
+
+        private void append(char c, int sourceOffset) {
+            int offset = mLength++;
+            mChars[offset] = c;
+            mSourceOffsets[offset] = sourceOffset;
+            if (c >= SYLLABLE_BASE && c <= SYLLABLE_LAST) {
+                int syllable = c - SYLLABLE_BASE;
+                appendJamo((char) (LEADING_BASE + syllable / (VOWELS * FINALS)), offset);
+                appendJamo((char) (VOWEL_BASE + syllable % (VOWELS * FINALS) / FINALS), offset);
+                if (syllable % FINALS != 0) {
+                    appendJamo((char) (FINAL_BASE + syllable % FINALS), offset);
+                }
+            } else {
+                appendJamo(c, offset);
+            }
+        }
+
+        private void appendJamo(char jamo, int offset) {
+            mJamo[mJamoLength] = jamo;
+            mJamoOffsets[mJamoLength] = offset;
+            mJamoLength++;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mChars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mChars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, 0, mLength);
+        }
+
+        /**
+         * @return the offset in the source text of the normalized character at the index.
+         */
+        public int getSourceOffset(int index) {
+            return mSourceOffsets[index];
+        }
+
+        public int getJamoLength() {
+            return mJamoLength;
+        }
+
+        public char getJamo(int index) {
+            return mJamo[index];
+        }
+
+        /**
+         * @return the index of the normalized character the jamo at the index belongs to.
+         */
+        public int getJamoOffset(int index) {
+            return mJamoOffsets[index];
+        }
+
+        /**
+         * @return the jamo spelling as a string, e.g. for compiling keywords.
+         */
+        public String jamoToString() {
+            return new String(mJamo, 0, mJamoLength);
+        }
+    }
+}
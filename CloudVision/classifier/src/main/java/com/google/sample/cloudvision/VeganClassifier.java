@@ -0,0 +1,114 @@
+package com.google.sample.cloudvision;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns OCR text into a {@link VeganLevel} with the keywords of an
+ * {@link IngredientDictionaryFile}.
+ *
+ * The text is normalized with {@link TextNormalizer} first. Long keywords also count when they
+ * occur with a misread jamo or a stray space. A keyword followed by one of the dictionary's
+ * exclusion phrases, directly or after a space, as in "우유 무첨가", does not count. Classifiers
+ * hold no state of their own, so one can be shared by any number of threads.
+ */
+public final class VeganClassifier {
+    private final IngredientDictionaryFile mFile;
+    private final List<String> mExclusions;
+
+    public VeganClassifier(IngredientDictionaryFile file) {
+        mFile = file;
+        mExclusions = file.getExclusions();
+    }
+
+    public IngredientDictionaryFile getFile() {
+        return mFile;
+    }
+
+    /**
+     * Finds the level of the text without collecting the keywords, stopping as soon as the level
+     * cannot get any stricter.
+     */
+    public VeganLevel classify(CharSequence text) {
+        TextNormalizer.Text normalized = TextNormalizer.normalize(text);
+        String phrases = findExclusions(normalized);
+        if (phrases != null) {
+            // Only the matches tell which keywords the exclusions cancel.
+            VeganLevel level = VeganLevel.VEGAN;
+            for (VeganVerdict.Match match : findMatches(normalized, phrases)) {
+                level = VeganLevel.strictest(level, match.getLevel());
+            }
+            return level;
+        }
+        VeganLevel level = mFile.getMatcher().findStrictest(normalized);
+        if (level != VeganLevel.NON_VEGAN) {
+            // Misread keywords can only make the verdict stricter.
+            level = VeganLevel.strictest(level, mFile.getFuzzyMatcher().findStrictest(normalized));
+        }
+        return level;
+    }
+
+    /**
+     * Finds every ingredient keyword in the text.
+     *
+     * @return the matches with their offsets in the text as given, exact ones first.
+     */
+    public List<VeganVerdict.Match> findMatches(CharSequence text) {
+        TextNormalizer.Text normalized = TextNormalizer.normalize(text);
+        return findMatches(normalized, findExclusions(normalized));
+    }
+
+    /**
+     * @param phrases the normalized text if it contains an exclusion phrase, else null.
+     */
+    private List<VeganVerdict.Match> findMatches(TextNormalizer.Text normalized, String phrases) {
+        List<VeganVerdict.Match> matches = new ArrayList<>();
+        mFile.getMatcher().findAll(normalized, (start, end, level) -> {
+            if (phrases == null || !isExcluded(phrases, end)) {
+                matches.add(newMatch(normalized, start, end,
+                        normalized.subSequence(start, end).toString(), level, false));
+            }
+        });
+        mFile.getFuzzyMatcher().findAll(normalized, (start, end, keyword, level) -> {
+            if (phrases == null || !isExcluded(phrases, end)) {
+                matches.add(newMatch(normalized, start, end, keyword, level, true));
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * @return the normalized text as a string if it contains any exclusion phrase, else null.
+     */
+    private String findExclusions(TextNormalizer.Text normalized) {
+        if (mExclusions.isEmpty()) {
+            return null;
+        }
+        String text = normalized.toString();
+        for (String exclusion : mExclusions) {
+            if (text.contains(exclusion)) {
+                return text;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether an exclusion phrase follows the keyword ending at the index.
+     */
+    private boolean isExcluded(String text, int end) {
+        int start = end < text.length() && text.charAt(end) == TextNormalizer.SPACE ? end + 1 : end;
+        for (String exclusion : mExclusions) {
+            if (text.startsWith(exclusion, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static VeganVerdict.Match newMatch(TextNormalizer.Text normalized, int start, int end,
+                                               String keyword, VeganLevel level, boolean approximate) {
+        return new VeganVerdict.Match(keyword, level, normalized.getSourceOffset(start),
+                normalized.getSourceOffset(end - 1) + 1, approximate);
+    }
+}
@@ -0,0 +1,34 @@
+package com.google.sample.cloudvision;
+
+/**
+ * Vegan levels a product can be classified into, ordered from the strictest restriction
+ * (contains meat) to the loosest (no animal ingredients at all).
+ */
+public enum VeganLevel {
+    NON_VEGAN("논비건"),
+    SEMI("세미"),
+    PESCO("페스코"),
+    LACTO_OVO("락토오보"),
+    LACTO("락토"),
+    VEGAN("비건");
+
+    private final String mLabel;
+
+    VeganLevel(String label) {
+        mLabel = label;
+    }
+
+    /**
+     * @return the Korean name shown to the user.
+     */
+    public String getLabel() {
+        return mLabel;
+    }
+
+    /**
+     * @return whichever of the two levels is the stricter one.
+     */
+    public static VeganLevel strictest(VeganLevel a, VeganLevel b) {
+        return a.ordinal() <= b.ordinal() ? a : b;
+    }
+}
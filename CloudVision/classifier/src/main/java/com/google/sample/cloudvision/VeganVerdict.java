@@ -0,0 +1,225 @@
+package com.google.sample.cloudvision;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The classification of one picture: its {@link VeganLevel}, every ingredient keyword that led
+ * to it with where it occurs in the OCR text, and how long each stage of the scan took.
+ *
+ * Verdicts are immutable and serialize to a compact binary record with {@link #writeTo} for the
+ * cache and telemetry.
+ */
+public final class VeganVerdict {
+    /**
+     * The stages of a scan, in the order they run.
+     */
+    public enum Stage {
+        DECODE, ENCODE, RECOGNIZE, CLASSIFY
+    }
+
+    /** The most matches a record holds, their count is written as an unsigned short. */
+    static final int MAX_MATCHES = 0xffff;
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final VeganLevel[] LEVELS = VeganLevel.values();
+
+    private final VeganLevel mLevel;
+    private final String mText;
+    private final List<Match> mMatches;
+    private final long[] mStageNanos;
+
+    /**
+     * @param text       the OCR text, null if none was found.
+     * @param matches    the keywords found in the text.
+     * @param stageNanos the time each {@link Stage} took, indexed by its ordinal.
+     */
+    public VeganVerdict(String text, List<Match> matches, long[] stageNanos) {
+        VeganLevel level = VeganLevel.VEGAN;
+        for (Match match : matches) {
+            level = VeganLevel.strictest(level, match.getLevel());
+        }
+        mLevel = level;
+        mText = text;
+        mMatches = Collections.unmodifiableList(new ArrayList<>(matches));
+        mStageNanos = Arrays.copyOf(stageNanos, STAGES.length);
+    }
+
+    /**
+     * @return the strictest level of the matched keywords, {@link VeganLevel#VEGAN} if there
+     * are none.
+     */
+    public VeganLevel getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return the OCR text the match offsets refer to, null if none was found.
+     */
+    public String getText() {
+        return mText;
+    }
+
+    public List<Match> getMatches() {
+        return mMatches;
+    }
+
+    public long getStageNanos(Stage stage) {
+        return mStageNanos[stage.ordinal()];
+    }
+
+    /**
+     * @return the same classification with the timings of another scan, e.g. one that was
+     * answered from the cache.
+     */
+    public VeganVerdict withStageNanos(long[] stageNanos) {
+        return new VeganVerdict(mText, mMatches, stageNanos);
+    }
+
+    /**
+     * @return roughly the heap the verdict takes, for cache budgets.
+     */
+    public int sizeInBytes() {
+        int size = 64 + (mText != null ? 2 * mText.length() : 0);
+        for (Match match : mMatches) {
+            size += 40 + 2 * match.getKeyword().length();
+        }
+        return size;
+    }
+
+    /**
+     * @throws IOException if the verdict has more than {@link #MAX_MATCHES} matches.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        if (mMatches.size() > MAX_MATCHES) {
+            throw new IOException(mMatches.size() + " matches do not fit in a record");
+        }
+        out.writeByte(mLevel.ordinal());
+        out.writeBoolean(mText != null);
+        if (mText != null) {
+            byte[] bytes = mText.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        out.writeShort(mMatches.size());
+        for (Match match : mMatches) {
+            out.writeUTF(match.getKeyword());
+            out.writeByte(match.getLevel().ordinal());
+            out.writeInt(match.getStart());
+            out.writeInt(match.getEnd());
+            out.writeBoolean(match.isApproximate());
+        }
+        out.writeByte(mStageNanos.length);
+        for (long nanos : mStageNanos) {
+            out.writeLong(nanos);
+        }
+    }
+
+    /**
+     * Reads a verdict written by {@link #writeTo}.
+     *
+     * @throws IOException if the record is malformed.
+     */
+    public static VeganVerdict readFrom(DataInput in) throws IOException {
+        // Only checked, the level follows from the matches.
+        readLevel(in);
+        String text = null;
+        if (in.readBoolean()) {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int count = in.readUnsignedShort();
+        List<Match> matches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String keyword = in.readUTF();
+            VeganLevel level = readLevel(in);
+            int start = in.readInt();
+            int end = in.readInt();
+            if (text == null || start < 0 || start >= end || end > text.length()) {
+                throw new IOException("match " + keyword + " out of the text");
+            }
+            matches.add(new Match(keyword, level, start, end, in.readBoolean()));
+        }
+        int stages = in.readUnsignedByte();
+        long[] stageNanos = new long[STAGES.length];
+        for (int i = 0; i < stages; i++) {
+            long nanos = in.readLong();
+            // Stages added later are dropped by older readers.
+            if (i < stageNanos.length) {
+                stageNanos[i] = nanos;
+            }
+        }
+        return new VeganVerdict(text, matches, stageNanos);
+    }
+
+    private static VeganLevel readLevel(DataInput in) throws IOException {
+        int level = in.readByte();
+        if (level < 0 || level >= LEVELS.length) {
+            throw new IOException("unknown level " + level);
+        }
+        return LEVELS[level];
+    }
+
+    @Override
+    public String toString() {
+        return mLevel + " " + mMatches;
+    }
+
+    /**
+     * One occurrence of an ingredient keyword in the OCR text.
+     */
+    public static final class Match {
+        private final String mKeyword;
+        private final VeganLevel mLevel;
+        private final int mStart;
+        private final int mEnd;
+        private final boolean mApproximate;
+
+        /**
+         * @param keyword     the keyword as it is spelled in the dictionary.
+         * @param level       the category of the keyword.
+         * @param start       the offset of the first character of the occurrence in the text.
+         * @param end         the offset after its last character.
+         * @param approximate whether the text spells the keyword with a typo.
+         */
+        public Match(String keyword, VeganLevel level, int start, int end, boolean approximate) {
+            mKeyword = keyword;
+            mLevel = level;
+            mStart = start;
+            mEnd = end;
+            mApproximate = approximate;
+        }
+
+        public String getKeyword() {
+            return mKeyword;
+        }
+
+        public VeganLevel getLevel() {
+            return mLevel;
+        }
+
+        public int getStart() {
+            return mStart;
+        }
+
+        public int getEnd() {
+            return mEnd;
+        }
+
+        public boolean isApproximate() {
+            return mApproximate;
+        }
+
+        @Override
+        public String toString() {
+            return mKeyword + (mApproximate ? "~" : "") + "@" + mStart + ".." + mEnd;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.google.sample.cloudvision;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class FuzzyIngredientMatcherTest {
+    private final FuzzyIngredientMatcher mMatcher = new FuzzyIngredientMatcher.Builder()
+            .add(TextNormalizer.normalize("돼지고기"), VeganLevel.NON_VEGAN)
+            .add(TextNormalizer.normalize("게농축액"), VeganLevel.PESCO)
+            .add(TextNormalizer.normalize("우유"), VeganLevel.LACTO)
+            .build();
+
+    @Test
+    public void findsAKeywordWithOneMisreadJamo() {
+        assertEquals(VeganLevel.NON_VEGAN, findStrictest("원재료명: 정제수, 돼지고가, 설탕"));
+        assertEquals(VeganLevel.NON_VEGAN, findStrictest("돼지오기"));
+        assertEquals(VeganLevel.NON_VEGAN, findStrictest("돼지고기름"));
+    }
+
+    @Test
+    public void findsAKeywordSplitByAStraySpace() {
+        assertEquals(VeganLevel.NON_VEGAN, findStrictest("돼지 고기"));
+    }
+
+    @Test
+    public void needsTheFirstSyllableExactly() {
+        assertEquals(VeganLevel.VEGAN, findStrictest("대지고기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("됴지고기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("됐지고기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("포도 과농축액"));
+    }
+
+    @Test
+    public void ignoresKeywordsMoreThanOneEditAway() {
+        assertEquals(VeganLevel.VEGAN, findStrictest("대지고가"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼지 고가"));
+    }
+
+    @Test
+    public void neverReachesOverASeparator() {
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼지, 고기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼지,고기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼지\n고기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼지(고기)"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼지고, 기"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("돼, 지고기"));
+    }
+
+    @Test
+    public void leavesShortKeywordsToExactMatching() {
+        assertEquals(VeganLevel.VEGAN, findStrictest("우요"));
+    }
+
+    @Test
+    public void onlyStartsAtAWord() {
+        // 게농축엑 is one jamo away from 게농축액, 사과농축액 and 과농축액 are not.
+        assertEquals(VeganLevel.VEGAN, findStrictest("사과농축액"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("사과 과농축액"));
+        assertEquals(VeganLevel.VEGAN, findStrictest("사과게농축엑"));
+        assertEquals(VeganLevel.PESCO, findStrictest("사과 게농축엑"));
+    }
+
+    @Test
+    public void reportsTheKeywordAndWhereItsMisreadingIs() {
+        String text = "정제수, 돼지고가, 설탕";
+        TextNormalizer.Text normalized = TextNormalizer.normalize(text);
+        List<String> found = new ArrayList<>();
+
+        mMatcher.findAll(normalized, (start, end, keyword, level) -> found.add(keyword + " " + level
+                + " " + text.substring(normalized.getSourceOffset(start), normalized.getSourceOffset(end - 1) + 1)));
+
+        assertEquals(1, found.size());
+        assertEquals("돼지고기 NON_VEGAN 돼지고가", found.get(0));
+    }
+
+    @Test
+    public void reportsAKeywordEndingInsideASyllable() {
+        String text = "정제수, 돼지고긴";
+        TextNormalizer.Text normalized = TextNormalizer.normalize(text);
+        List<String> found = new ArrayList<>();
+
+        mMatcher.findAll(normalized, (start, end, keyword, level) -> found.add(keyword + " " + level
+                + " " + text.substring(normalized.getSourceOffset(start), normalized.getSourceOffset(end - 1) + 1)));
+
+        assertEquals(1, found.size());
+        assertEquals("돼지고기 NON_VEGAN 돼지고긴", found.get(0));
+    }
+
+    @Test
+    public void leavesExactOccurrencesToTheExactMatcher() {
+        List<String> found = new ArrayList<>();
+
+        mMatcher.findAll(TextNormalizer.normalize("돼지고기"), (start, end, keyword, level) -> found.add(keyword));
+
+        assertEquals(0, found.size());
+    }
+
+    private VeganLevel findStrictest(String text) {
+        return mMatcher.findStrictest(TextNormalizer.normalize(text));
+    }
+}
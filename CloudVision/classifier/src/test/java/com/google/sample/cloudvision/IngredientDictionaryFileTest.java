@@ -0,0 +1,68 @@
+package com.google.sample.cloudvision;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IngredientDictionaryFileTest {
+
+    @Test
+    public void readsBackWhatWasCompiled() throws IOException {
+        IngredientRuleset ruleset = ShippedDictionary.ruleset();
+        IngredientDictionaryFile file = IngredientDictionaryFile.read(ByteBuffer.wrap(compile(ruleset)));
+
+        assertEquals(1, file.getVersion());
+        for (VeganLevel level : IngredientSources.CATEGORIES.values()) {
+            assertEquals(level.name(), ruleset.getKeywords(level).size(), file.getKeywordCount(level));
+        }
+        assertEquals(0, file.getKeywordCount(VeganLevel.VEGAN));
+        assertEquals(Arrays.asList("무첨가", "무함유"), file.getExclusions());
+        assertEquals(VeganLevel.NON_VEGAN, file.getMatcher().findStrictest("정제수\n돼지고기\n설탕"));
+    }
+
+    @Test
+    public void readsFromADirectBuffer() throws IOException {
+        byte[] bytes = compile(ShippedDictionary.ruleset());
+        // Like the memory mapped asset.
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+
+        IngredientDictionaryFile file = IngredientDictionaryFile.read(buffer);
+
+        assertEquals(VeganLevel.LACTO, file.getMatcher().findStrictest("밀가루\n우유"));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        byte[] bytes = compile(ShippedDictionary.ruleset());
+        bytes[0] ^= 1;
+        assertCorrupt(bytes);
+    }
+
+    @Test
+    public void rejectsTruncatedFiles() throws IOException {
+        byte[] bytes = compile(ShippedDictionary.ruleset());
+        assertCorrupt(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    private static byte[] compile(IngredientRuleset ruleset) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ruleset.compileTo(out);
+        return out.toByteArray();
+    }
+
+    private static void assertCorrupt(byte[] bytes) {
+        try {
+            IngredientDictionaryFile.read(ByteBuffer.wrap(bytes));
+            fail("read a corrupt dictionary");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.google.sample.cloudvision;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the automaton against the loop it replaced: the OCR text split into words, joined with
+ * line breaks and searched with indexOf for every keyword of every list, strictest list first.
+ */
+public class IngredientMatcherTest {
+    private static final String[] FILLER = {"원재료명", "정제수", "밀가루", "설탕", "대두유", "효모",
+            "정제소금", "옥수수전분", "향료", "비타민C", "산도조절제", "함유", "water", "Sugar"};
+    private static final String[] GAPS = {", ", ",", " ", "\n", ": ", "(", ")", "  "};
+    private static final int RANDOM_TEXTS = 5000;
+
+    private static List<List<String>> sLists;
+    private static IngredientMatcher sMatcher;
+
+    @BeforeClass
+    public static void compileShippedLists() throws IOException {
+        IngredientRuleset ruleset = ShippedDictionary.ruleset();
+        sLists = new ArrayList<>();
+        IngredientMatcher.Builder builder = new IngredientMatcher.Builder();
+        // The old loop went through the lists from the strictest level on.
+        for (VeganLevel level : VeganLevel.values()) {
+            List<String> keywords = new ArrayList<>(ruleset.getKeywords(level));
+            sLists.add(keywords);
+            builder.addAll(keywords, level);
+        }
+        sMatcher = builder.build();
+    }
+
+    @Test
+    public void findsEveryShippedKeywordLikeTheLoop() {
+        for (List<String> keywords : sLists) {
+            for (String keyword : keywords) {
+                assertSameAsLoop("원재료명: 정제수, " + keyword + ", 설탕");
+                assertSameAsLoop(keyword);
+            }
+        }
+    }
+
+    @Test
+    public void agreesWithTheLoopOnRandomLabels() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_TEXTS; i++) {
+            assertSameAsLoop(randomLabel(random));
+        }
+    }
+
+    @Test
+    public void reportsEveryOccurrenceTheLoopFinds() {
+        Random random = new Random(7);
+        for (int i = 0; i < RANDOM_TEXTS; i++) {
+            String message = split(randomLabel(random));
+            Set<String> expected = new TreeSet<>();
+            for (List<String> keywords : sLists) {
+                for (String keyword : keywords) {
+                    if (message.contains(keyword)) {
+                        expected.add(keyword);
+                    }
+                }
+            }
+            Set<String> found = new TreeSet<>();
+            sMatcher.findAll(message, (start, end, level) -> found.add(message.substring(start, end)));
+            assertEquals(message, expected, found);
+        }
+    }
+
+    @Test
+    public void keepsTheStrictestLevelOfAKeywordInSeveralLists() {
+        IngredientMatcher matcher = new IngredientMatcher.Builder()
+                .add("우유", VeganLevel.LACTO)
+                .add("우유", VeganLevel.SEMI)
+                .build();
+
+        assertEquals(VeganLevel.SEMI, matcher.findStrictest("우유"));
+    }
+
+    @Test
+    public void findsOverlappingKeywords() {
+        IngredientMatcher matcher = new IngredientMatcher.Builder()
+                .add("돼지고기", VeganLevel.NON_VEGAN)
+                .add("고기", VeganLevel.SEMI)
+                .add("기름", VeganLevel.LACTO)
+                .build();
+        List<String> found = new ArrayList<>();
+
+        matcher.findAll("돼지고기름", (start, end, level) -> found.add(start + "-" + end + " " + level));
+
+        assertEquals(3, found.size());
+        assertTrue(found.contains("0-4 NON_VEGAN"));
+        assertTrue(found.contains("2-4 SEMI"));
+        assertTrue(found.contains("3-5 LACTO"));
+    }
+
+    private static void assertSameAsLoop(String text) {
+        String message = split(text);
+        assertEquals(text, loop(message), sMatcher.findStrictest(message));
+    }
+
+    /**
+     * The text the way the old loop searched it.
+     */
+    private static String split(String text) {
+        StringBuilder message = new StringBuilder();
+        for (String word : text.split(",|:|\\(|\\)|\n|\\s")) {
+            message.append(word).append('\n');
+        }
+        return message.toString();
+    }
+
+    private static VeganLevel loop(String message) {
+        for (int i = 0; i < sLists.size(); i++) {
+            for (String keyword : sLists.get(i)) {
+                if (message.contains(keyword)) {
+                    return VeganLevel.values()[i];
+                }
+            }
+        }
+        return VeganLevel.VEGAN;
+    }
+
+    /**
+     * Filler words, now and then a keyword, a keyword cut short or two keywords run together.
+     */
+    private static String randomLabel(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = 1 + random.nextInt(12);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                text.append(GAPS[random.nextInt(GAPS.length)]);
+            }
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                text.append(FILLER[random.nextInt(FILLER.length)]);
+            } else {
+                String keyword = randomKeyword(random);
+                if (kind == 6 && keyword.length() > 1) {
+                    text.append(keyword, 0, keyword.length() - 1);
+                } else if (kind == 7) {
+                    text.append(keyword).append(randomKeyword(random));
+                } else {
+                    text.append(keyword);
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static String randomKeyword(Random random) {
+        List<String> keywords;
+        do {
+            keywords = sLists.get(random.nextInt(sLists.size()));
+        } while (keywords.isEmpty());
+        return keywords.get(random.nextInt(keywords.size()));
+    }
+}
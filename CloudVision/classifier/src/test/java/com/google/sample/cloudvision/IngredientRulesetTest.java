@@ -0,0 +1,169 @@
+package com.google.sample.cloudvision;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IngredientRulesetTest {
+    private static final String LABEL = "원재료명: 밀가루, 정제수, 젤라틴, 유청분말";
+    private static final int READERS = 4;
+    private static final int SWAPS = 20;
+
+    @Test
+    public void appliesAPatch() throws IOException {
+        IngredientRuleset patched = ruleset().apply(patch(1, 2, "+NON_VEGAN 젤라틴", "-LACTO 유청", "+EXCLUDE 무함유"));
+
+        assertEquals(2, patched.getVersion());
+        assertTrue(patched.getKeywords(VeganLevel.NON_VEGAN).contains("젤라틴"));
+        assertFalse(patched.getKeywords(VeganLevel.LACTO).contains("유청"));
+        assertTrue(patched.getExclusions().contains("무함유"));
+        assertEquals(VeganLevel.NON_VEGAN, new VeganClassifier(patched.compile()).classify(LABEL));
+    }
+
+    @Test
+    public void writesWhatItReads() throws IOException {
+        IngredientRuleset ruleset = ShippedDictionary.ruleset();
+        StringWriter out = new StringWriter();
+        ruleset.writeTo(out);
+
+        IngredientRuleset read = IngredientRuleset.read(new StringReader(out.toString()));
+
+        assertEquals(ruleset.getVersion(), read.getVersion());
+        for (VeganLevel level : IngredientSources.CATEGORIES.values()) {
+            assertEquals(ruleset.getKeywords(level), read.getKeywords(level));
+        }
+        assertEquals(ruleset.getExclusions(), read.getExclusions());
+    }
+
+    @Test
+    public void rejectsAPatchForAnotherVersion() throws IOException {
+        try {
+            ruleset().apply(patch(2, 3, "+NON_VEGAN 젤라틴"));
+            fail("applied a patch for version 2 to version 1");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void rejectsEntriesWithoutLetters() {
+        for (String change : new String[]{"+LACTO ()", "+NON_VEGAN ,", "+EXCLUDE ()", "+EXCLUDE :",
+                "-LACTO ( )", "+LACTO"}) {
+            try {
+                patch(1, 2, change);
+                fail("read " + change);
+            } catch (IOException e) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void doesNotCompileAnEmptyExclusion() throws IOException {
+        IngredientRuleset ruleset = new IngredientRuleset(1, keywords(), Collections.singletonList("()"));
+        try {
+            ruleset.compile();
+            fail("compiled an exclusion that would cancel every keyword");
+        } catch (IllegalArgumentException e) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Swaps the classifier the way the app installs patched rules, while other threads classify
+     * with whichever one is current. Every verdict has to be the one of the version it was made
+     * with, and no thread may see an older version after a newer one.
+     */
+    @Test
+    public void swapsRulesetsUnderConcurrentClassification() throws Exception {
+        IngredientRuleset base = ShippedDictionary.ruleset();
+        // The shipped lists have 젤라틴, even versions remove it and odd ones add it again.
+        AtomicReference<VeganClassifier> current = new AtomicReference<>(new VeganClassifier(base.compile()));
+        VeganLevel with = current.get().classify(LABEL);
+        VeganLevel without = new VeganClassifier(base.apply(patch(1, 2, "-NON_VEGAN 젤라틴")).compile())
+                .classify(LABEL);
+        assertEquals(VeganLevel.NON_VEGAN, with);
+        assertTrue(with != without);
+
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch started = new CountDownLatch(READERS);
+        ExecutorService readers = Executors.newFixedThreadPool(READERS);
+        try {
+            Future<?>[] results = new Future<?>[READERS];
+            for (int i = 0; i < READERS; i++) {
+                results[i] = readers.submit(() -> {
+                    started.countDown();
+                    int lastVersion = 0;
+                    while (!done.get()) {
+                        VeganClassifier classifier = current.get();
+                        int version = classifier.getFile().getVersion();
+                        assertTrue(version >= lastVersion);
+                        lastVersion = version;
+                        VeganLevel expected = version % 2 == 1 ? with : without;
+                        assertEquals(expected, classifier.classify(LABEL));
+                        List<VeganVerdict.Match> matches = classifier.findMatches(LABEL);
+                        VeganLevel level = VeganLevel.VEGAN;
+                        for (VeganVerdict.Match match : matches) {
+                            level = VeganLevel.strictest(level, match.getLevel());
+                        }
+                        assertEquals(expected, level);
+                    }
+                    return null;
+                });
+            }
+            started.await();
+
+            IngredientRuleset ruleset = base;
+            for (int i = 0; i < SWAPS; i++) {
+                int version = ruleset.getVersion();
+                String change = version % 2 == 1 ? "-NON_VEGAN 젤라틴" : "+NON_VEGAN 젤라틴";
+                ruleset = ruleset.apply(patch(version, version + 1, change));
+                current.set(new VeganClassifier(ruleset.compile()));
+            }
+            done.set(true);
+            for (Future<?> result : results) {
+                result.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            done.set(true);
+            readers.shutdownNow();
+        }
+    }
+
+    private static IngredientRuleset ruleset() {
+        return new IngredientRuleset(1, keywords(), Collections.singletonList("무첨가"));
+    }
+
+    private static Map<VeganLevel, List<String>> keywords() {
+        Map<VeganLevel, List<String>> keywords = new EnumMap<>(VeganLevel.class);
+        keywords.put(VeganLevel.NON_VEGAN, Collections.singletonList("돼지고기"));
+        keywords.put(VeganLevel.LACTO, Collections.singletonList("유청"));
+        return keywords;
+    }
+
+    private static IngredientRuleset.Patch patch(int base, int version, String... changes) throws IOException {
+        StringBuilder text = new StringBuilder("base " + base + "\nversion " + version + "\n");
+        for (String change : changes) {
+            text.append(change).append('\n');
+        }
+        return IngredientRuleset.Patch.read(new StringReader(text.toString()));
+    }
+}
@@ -0,0 +1,29 @@
+package com.google.sample.cloudvision;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The keyword lists the app ships, for the tests.
+ */
+final class ShippedDictionary {
+    private static IngredientRuleset sRuleset;
+
+    private ShippedDictionary() {
+    }
+
+    /**
+     * @return the keyword lists as version 1, read once.
+     */
+    static synchronized IngredientRuleset ruleset() throws IOException {
+        if (sRuleset == null) {
+            File directory = new File(System.getProperty("ingredient.sources", "../app/src/main/dictionary"));
+            sRuleset = IngredientSources.read(directory, 1);
+        }
+        return sRuleset;
+    }
+
+    static VeganClassifier classifier() throws IOException {
+        return new VeganClassifier(ruleset().compile());
+    }
+}
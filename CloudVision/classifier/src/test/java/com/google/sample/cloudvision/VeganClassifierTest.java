@@ -0,0 +1,124 @@
+package com.google.sample.cloudvision;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VeganClassifierTest {
+
+    @Test
+    public void classifiesWithTheShippedDictionary() throws IOException {
+        VeganClassifier classifier = ShippedDictionary.classifier();
+
+        assertEquals(VeganLevel.VEGAN, classifier.classify("원재료명: 밀가루, 정제수, 설탕"));
+        assertEquals(VeganLevel.LACTO, classifier.classify("원재료명: 밀가루, 우유"));
+        assertEquals(VeganLevel.NON_VEGAN, classifier.classify("원재료명: 밀가루, 우유, 돼지고기"));
+    }
+
+    @Test
+    public void findsMisreadKeywords() throws IOException {
+        VeganClassifier classifier = classifier();
+
+        assertEquals(VeganLevel.NON_VEGAN, classifier.classify("정제수, 돼지고가"));
+        List<VeganVerdict.Match> matches = classifier.findMatches("정제수, 돼지고가");
+        assertEquals(1, matches.size());
+        assertEquals("돼지고기", matches.get(0).getKeyword());
+        assertTrue(matches.get(0).isApproximate());
+    }
+
+    @Test
+    public void findsTheLevelItClassifies() throws IOException {
+        VeganClassifier classifier = classifier();
+        for (String text : new String[]{"돼지고긴", "돼지고기", "돼지고긴 무첨가", "돼지고가, 우유", "우유 돼지고긴",
+                "돼지, 고기", "포도 과농축액", "정제수"}) {
+            assertEquals(text, classifier.classify(text), strictest(classifier.findMatches(text)));
+        }
+        assertEquals(VeganLevel.NON_VEGAN, classifier.classify("돼지고긴"));
+    }
+
+    @Test
+    public void findsTheLevelItClassifiesWithTheShippedDictionary() throws IOException {
+        VeganClassifier classifier = ShippedDictionary.classifier();
+        IngredientRuleset ruleset = ShippedDictionary.ruleset();
+        Random random = new Random(11);
+        List<String> keywords = new ArrayList<>();
+        for (VeganLevel level : IngredientSources.CATEGORIES.values()) {
+            keywords.addAll(ruleset.getKeywords(level));
+        }
+        for (int i = 0; i < 2000; i++) {
+            String keyword = keywords.get(random.nextInt(keywords.size()));
+            // The keyword as is, cut short, run into the next syllable or with a misread jamo.
+            String text = "원재료명: 정제수, " + mangle(keyword, random) + ", 설탕";
+            assertEquals(text, classifier.classify(text), strictest(classifier.findMatches(text)));
+        }
+    }
+
+    @Test
+    public void doesNotJoinIngredients() throws IOException {
+        assertEquals(VeganLevel.VEGAN, classifier().classify("원재료명: 돼지, 고기"));
+    }
+
+    @Test
+    public void cancelsTheKeywordBeforeAnExclusion() throws IOException {
+        VeganClassifier classifier = classifier();
+
+        assertEquals(VeganLevel.VEGAN, classifier.classify("우유 무첨가"));
+        assertEquals(VeganLevel.VEGAN, classifier.classify("우유무첨가"));
+        assertEquals(VeganLevel.VEGAN, classifier.classify("돼지고가 무첨가"));
+        assertEquals(0, classifier.findMatches("정제수, 우유 무첨가").size());
+    }
+
+    @Test
+    public void keepsTheOtherKeywords() throws IOException {
+        VeganClassifier classifier = classifier();
+
+        assertEquals(VeganLevel.NON_VEGAN, classifier.classify("우유 무첨가, 돼지고기"));
+        assertEquals(VeganLevel.LACTO, classifier.classify("돼지고기 무첨가, 우유"));
+        // The exclusion has to follow the keyword.
+        assertEquals(VeganLevel.LACTO, classifier.classify("무첨가 우유"));
+    }
+
+    private static VeganLevel strictest(List<VeganVerdict.Match> matches) {
+        VeganLevel level = VeganLevel.VEGAN;
+        for (VeganVerdict.Match match : matches) {
+            level = VeganLevel.strictest(level, match.getLevel());
+        }
+        return level;
+    }
+
+    private static String mangle(String keyword, Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return keyword.substring(0, Math.max(1, keyword.length() - 1));
+            case 1:
+                char last = keyword.charAt(keyword.length() - 1);
+                if (last >= '가' && last <= '힣' && (last - '가') % 28 == 0) {
+                    // The same syllable with a final consonant, as if it ran into the next word.
+                    return keyword.substring(0, keyword.length() - 1) + (char) (last + 4);
+                }
+                return keyword;
+            case 2:
+                int index = random.nextInt(keyword.length());
+                return keyword.substring(0, index) + (char) (keyword.charAt(index) + 28) + keyword.substring(index + 1);
+            default:
+                return keyword;
+        }
+    }
+
+    private static VeganClassifier classifier() throws IOException {
+        Map<VeganLevel, List<String>> keywords = new EnumMap<>(VeganLevel.class);
+        keywords.put(VeganLevel.NON_VEGAN, Collections.singletonList("돼지고기"));
+        keywords.put(VeganLevel.LACTO, Arrays.asList("우유", "유청"));
+        return new VeganClassifier(new IngredientRuleset(1, keywords, Collections.singletonList("무첨가")).compile());
+    }
+}
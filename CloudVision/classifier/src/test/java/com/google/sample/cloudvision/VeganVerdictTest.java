@@ -0,0 +1,112 @@
+package com.google.sample.cloudvision;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class VeganVerdictTest {
+    private static final String TEXT = "원재료명: 밀가루, 우유, 돼지고가";
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        VeganVerdict verdict = new VeganVerdict(TEXT, Arrays.asList(
+                new VeganVerdict.Match("우유", VeganLevel.LACTO, 11, 13, false),
+                new VeganVerdict.Match("돼지고기", VeganLevel.NON_VEGAN, 15, 19, true)),
+                new long[]{1, 2_000, 30_000_000_000L, 4});
+
+        VeganVerdict read = roundTrip(verdict);
+
+        assertEquals(VeganLevel.NON_VEGAN, read.getLevel());
+        assertEquals(TEXT, read.getText());
+        assertEquals(2, read.getMatches().size());
+        assertMatch(verdict.getMatches().get(0), read.getMatches().get(0));
+        assertMatch(verdict.getMatches().get(1), read.getMatches().get(1));
+        for (VeganVerdict.Stage stage : VeganVerdict.Stage.values()) {
+            assertEquals(stage.name(), verdict.getStageNanos(stage), read.getStageNanos(stage));
+        }
+    }
+
+    @Test
+    public void readsBackAVerdictWithoutText() throws IOException {
+        VeganVerdict read = roundTrip(new VeganVerdict(null, Collections.emptyList(), new long[]{5}));
+
+        assertEquals(VeganLevel.VEGAN, read.getLevel());
+        assertNull(read.getText());
+        assertEquals(0, read.getMatches().size());
+        assertEquals(5, read.getStageNanos(VeganVerdict.Stage.DECODE));
+        assertEquals(0, read.getStageNanos(VeganVerdict.Stage.CLASSIFY));
+    }
+
+    @Test
+    public void writesTheMostMatchesThatFit() throws IOException {
+        assertEquals(VeganVerdict.MAX_MATCHES, roundTrip(withMatches(VeganVerdict.MAX_MATCHES)).getMatches().size());
+    }
+
+    @Test
+    public void refusesMoreMatchesThanFit() {
+        try {
+            write(withMatches(VeganVerdict.MAX_MATCHES + 1));
+            fail("wrote a match count that does not fit");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void rejectsAMatchOutsideTheText() throws IOException {
+        byte[] bytes = write(new VeganVerdict("우유", Collections.singletonList(
+                new VeganVerdict.Match("우유", VeganLevel.LACTO, 0, 3, false)), new long[0]));
+        try {
+            read(bytes);
+            fail("read a match beyond the end of the text");
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    private static VeganVerdict withMatches(int count) {
+        List<VeganVerdict.Match> matches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            matches.add(new VeganVerdict.Match("우유", VeganLevel.LACTO, 0, 2, false));
+        }
+        return new VeganVerdict("우유", matches, new long[0]);
+    }
+
+    private static void assertMatch(VeganVerdict.Match expected, VeganVerdict.Match actual) {
+        assertEquals(expected.getKeyword(), actual.getKeyword());
+        assertEquals(expected.getLevel(), actual.getLevel());
+        assertEquals(expected.getStart(), actual.getStart());
+        assertEquals(expected.getEnd(), actual.getEnd());
+        assertEquals(expected.isApproximate(), actual.isApproximate());
+    }
+
+    private static VeganVerdict roundTrip(VeganVerdict verdict) throws IOException {
+        return read(write(verdict));
+    }
+
+    private static byte[] write(VeganVerdict verdict) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            verdict.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static VeganVerdict read(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return VeganVerdict.readFrom(in);
+        }
+    }
+}
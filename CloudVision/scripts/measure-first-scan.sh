@@ -0,0 +1,41 @@
+#!/bin/sh
+# Times the first scan after a cold start of the installed debug build, with and without the
+# background warmup of StartupWarmer.
+#
+# Every run force-stops the app, clears the OCR result cache and the scan history, and starts
+# MainActivity with `am start -W`, which prints the launch time. The activity scans the given
+# picture after the delay, in place of the user picking it, and StartupWarmer logs the first
+# scan, which is also recorded as the FIRST_SCAN stage of ScanMetrics. The scan goes to Cloud
+# Vision, so the device needs a network.
+#
+# Usage: scripts/measure-first-scan.sh <label picture> [runs per mode] [pick delay in ms]
+
+set -e
+
+PACKAGE=com.google.sample.cloudvision
+PICTURE=${1:?usage: $0 <label picture> [runs per mode] [pick delay in ms]}
+RUNS=${2:-10}
+DELAY_MS=${3:-1500}
+# The app's external files, which it reads without a storage permission.
+DEVICE_PICTURE=/sdcard/Android/data/$PACKAGE/files/first-scan.jpg
+
+adb shell mkdir -p "$(dirname $DEVICE_PICTURE)"
+adb push "$PICTURE" "$DEVICE_PICTURE" > /dev/null
+
+for warmup in true false; do
+    echo "warmup $warmup"
+    run=1
+    while [ $run -le "$RUNS" ]; do
+        adb shell am force-stop $PACKAGE
+        # Otherwise every run after the first is answered without OCR.
+        adb shell run-as $PACKAGE rm -rf cache/scan-results databases/scan-history.db files/history-thumbnails
+        adb logcat -c
+        launch=$(adb shell am start -W -n $PACKAGE/.MainActivity \
+            --ez $PACKAGE.WARMUP $warmup \
+            --es $PACKAGE.SCAN "file://$DEVICE_PICTURE" \
+            --ei $PACKAGE.SCAN_DELAY_MS "$DELAY_MS" | grep TotalTime | tr -d '\r')
+        scan=$(timeout 60 adb logcat -s StartupWarmer:D | grep -m 1 'first scan took' | tr -d '\r')
+        echo "  run $run: $launch; ${scan#*: }"
+        run=$((run + 1))
+    done
+done